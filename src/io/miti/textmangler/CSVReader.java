@@ -28,6 +28,7 @@
 
 package io.miti.textmangler;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,7 +38,7 @@ import java.util.List;
  * @author mwallace
  * @version 1.0
  */
-public final class CSVReader
+public final class CSVReader extends RowParser
 {
   /*
    * The following four variables can be viewed and
@@ -64,6 +65,54 @@ public final class CSVReader
    */
   private String sSeparators = ",";
   
+  /**
+   * The lookup table for the field separators.
+   */
+  private DelimiterSet separatorSet = new DelimiterSet(sSeparators);
+  
+  /**
+   * The row delimiters used when parsing a single line.
+   */
+  private static final DelimiterSet NO_ROW_DELIMITERS = new DelimiterSet("");
+  
+  /**
+   * The row delimiters that scanTargets was built for.
+   */
+  private DelimiterSet scanRowDelims = null;
+  
+  /**
+   * The characters that end an unquoted field: the field
+   * separators and the row delimiters.
+   */
+  private char[] scanTargets = null;
+  
+  /**
+   * The scan targets repeated in each lane, for CharScanner, or
+   * null if there are too many targets to scan a word at a time.
+   */
+  private long[] scanLanes = null;
+  
+  /**
+   * The lookup table for the scan targets.
+   */
+  private DelimiterSet scanSet = null;
+  
+  /**
+   * The array holding the text being parsed, or null if the
+   * text is not in an array.
+   */
+  private char[] scanArray = null;
+  
+  /**
+   * The index in scanArray of the start of the text.
+   */
+  private int scanOffset = 0;
+  
+  /**
+   * The rules for quoting fields.
+   */
+  private Dialect dialect = Dialect.STANDARD;
+  
   
   /**
    * Default constructor.  The default values are to trim fields,
@@ -164,79 +213,182 @@ public final class CSVReader
    */
   public List<String> parseLine(final String sInput)
   {
-    // Allocate an array to hold the items
-    List<String> list = new ArrayList<String>(20);
-    
     // Check the input string
     if (sInput == null)
     {
       return null;
     }
+    
+    // Parse the line and copy the fields to a new list
+    return new ArrayList<String>(parse(sInput, new CSVRecord()));
+  }
+  
+  
+  /**
+   * Parses the specified line into a record.  The record is
+   * cleared first, so the same record can be used for every row;
+   * once its buffers are large enough, parsing allocates nothing.
+   * 
+   * @param sInput the line of data to parse
+   * @param record the record to hold the fields
+   * @return the record
+   */
+  public CSVRecord parse(final String sInput, final CSVRecord record)
+  {
+    // Remove the fields of the previous row
+    record.reset();
+    
+    // Check the input string
+    if (sInput == null)
+    {
+      return record;
+    }
     else if (sInput.length() < 1)
     {
-      // Add an empty String to the list
-      list.add("");
-      
-      // Return the list variable
-      return list;
+      // Add an empty field
+      record.endField(false);
+      return record;
+    }
+    
+    // Parse the whole line as one record
+    parseRecord(sInput, 0, sInput.length(), true, NO_ROW_DELIMITERS, record);
+    return record;
+  }
+  
+  
+  /**
+   * Parses one record, starting at the specified index, into a
+   * record.  The record ends at the first row delimiter that is
+   * not inside a quoted field, or at the end of the text.  Rows
+   * are parsed the same way as parse() parses a line, except that
+   * a quoted field can contain row delimiters.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if the record reached end and atEnd is false,
+   *         so more text is needed to parse it
+   */
+  int parseRecord(final CharSequence text, final int start, final int end,
+                  final boolean atEnd, final DelimiterSet rowDelims,
+                  final CSVRecord record)
+  {
+    // Remove the fields of the previous row
+    startRecord(record);
+    
+    // Check if the text is in an array, so fields can be scanned a
+    // word at a time and copied in bulk
+    scanArray = null;
+    scanOffset = 0;
+    if ((text instanceof CharBuffer) && ((CharBuffer) text).hasArray())
+    {
+      final CharBuffer cb = (CharBuffer) text;
+      scanArray = cb.array();
+      scanOffset = cb.arrayOffset() + cb.position();
     }
     
     // Check the field separators
+    int i = start;
     if ((sSeparators == null) || (sSeparators.length() < 1))
     {
-      // No separators, so add the whole line.  Trim if necessary.
-      if (bTrimFields)
+      // No separators, so add the whole row.  Trim if necessary.
+      while ((i < end) && (!rowDelims.contains(text.charAt(i))))
       {
-        list.add(sInput.trim());
-      }
-      else
-      {
-        list.add(sInput);
+        ++i;
       }
       
-      // Return the list variable
-      return list;
+      appendText(text, start, i, record);
+      record.endField(bTrimFields);
+      return (((i == end) && (!atEnd)) ? -1 : i);
     }
     
+    // Build the set of characters that end an unquoted field
+    prepareScan(rowDelims);
+    
+    // Parse the fields with the loop for the dialect
+    switch (dialect)
+    {
+      case RFC_4180:
+        return parseQuoted(text, start, end, atEnd, rowDelims, record, false);
+      case BACKSLASH:
+        return parseQuoted(text, start, end, atEnd, rowDelims, record, true);
+      case TSV:
+        return parseUnquoted(text, start, end, atEnd, rowDelims, record);
+      default:
+        return parseStandard(text, start, end, atEnd, rowDelims, record);
+    }
+  }
+  
+  
+  /**
+   * Parses the fields of one record with the standard dialect.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  private int parseStandard(final CharSequence text, final int start,
+                            final int end, final boolean atEnd,
+                            final DelimiterSet rowDelims,
+                            final CSVRecord record)
+  {
     // Build the list
-    final int nLen = sInput.length();
-    int i = 0;
-    while (i < nLen)
+    final DelimiterSet seps = separatorSet;
+    int i = start;
+    while ((i < end) && (!rowDelims.contains(text.charAt(i))))
     {
+      // When parsing a single line, stop after the last field needed.
+      // Otherwise, the rest of the row is parsed to find where it
+      // ends, but no more fields are recorded.
+      if ((rowDelims == NO_ROW_DELIMITERS) && (record.isFull()))
+      {
+        break;
+      }
+      
       // Check if the user wants the field trimmed
       if (bTrimFields)
       {
         // Remove the leading spaces
-        while ((i < nLen) && (sInput.charAt(i) == ' '))
+        while ((i < end) && (text.charAt(i) == ' '))
         {
           ++i;
         }
         
-        if (i == nLen)
+        if ((i == end) || (rowDelims.contains(text.charAt(i))))
         {
           break;
         }
       }
       
       // Check for a leading quote
-      if (sInput.charAt(i) == cQuote)
+      if (text.charAt(i) == cQuote)
       {
-        // Read until closing quote
+        // Read until closing quote.  Row delimiters inside the
+        // quotes are part of the field.
         ++i;
         boolean bInQuote = true;
-        StringBuffer buf = new StringBuffer(20);
-        while (i < nLen)
+        while (i < end)
         {
-          if (sInput.charAt(i) == cQuote)
+          final char ch = text.charAt(i);
+          if (ch == cQuote)
           {
-            if (i >= (nLen - 1))
+            if ((i >= (end - 1)) || (rowDelims.contains(text.charAt(i + 1))))
             {
               break;
             }
-            else if (sInput.charAt(i + 1) == cQuote)
+            else if (text.charAt(i + 1) == cQuote)
             {
               // The user entered 2 quotes in a row, inside a quote
-              buf.append("'");
+              record.append(cQuote);
               ++i;
             }
             else
@@ -244,56 +396,422 @@ public final class CSVReader
               bInQuote = !bInQuote;
             }
           }
-          else if ((sSeparators.indexOf(sInput.charAt(i)) >= 0) && (!bInQuote))
+          else if ((!bInQuote) && (seps.contains(ch) || rowDelims.contains(ch)))
           {
             break;
           }
           else
           {
-            buf.append(sInput.charAt(i));
+            record.append(ch);
           }
           
           ++i;
         }
-        list.add(buf.toString());
-        ++i;
+        record.endField(false);
+        
+        // Skip the separator (or the closing quote at the end of the row)
+        if ((i < end) && (!rowDelims.contains(text.charAt(i))))
+        {
+          ++i;
+        }
       }
-      else if (sSeparators.indexOf(sInput.charAt(i)) >= 0)
+      else if (seps.contains(text.charAt(i)))
       {
         // Empty field
-        list.add("");
+        record.endField(false);
         ++i;
       }
       else
       {
-        // Build the string until we hit another comma
-        StringBuffer buf = new StringBuffer(20);
-        while ((i < nLen) && (sSeparators.indexOf(sInput.charAt(i)) < 0))
+        // Build the field until we hit another comma
+        final int fieldStart = i;
+        i = scanField(text, i, end);
+        appendText(text, fieldStart, i, record);
+        record.endField(bTrimFields);
+        if ((i < end) && (seps.contains(text.charAt(i))))
         {
-          buf.append(sInput.charAt(i++));
+          ++i;
+        }
+      }
+    } // while not at the end of the row - end
+    
+    // Check for a trailing comma
+    return endRecord(i, end, atEnd,
+                     (i > start) && (seps.contains(text.charAt(i - 1))),
+                     record);
+  }
+  
+  
+  /**
+   * Parses the fields of one record with the RFC 4180 or
+   * backslash dialect.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @param escapes whether a backslash escapes the next character
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  private int parseQuoted(final CharSequence text, final int start,
+                          final int end, final boolean atEnd,
+                          final DelimiterSet rowDelims,
+                          final CSVRecord record, final boolean escapes)
+  {
+    final DelimiterSet seps = separatorSet;
+    final char quote = cQuote;
+    boolean bAfterSeparator = false;
+    int i = start;
+    while ((i < end) && (!rowDelims.contains(text.charAt(i))))
+    {
+      // When parsing a single line, stop after the last field needed
+      if ((rowDelims == NO_ROW_DELIMITERS) && (record.isFull()))
+      {
+        return i;
+      }
+      
+      // Remove the leading spaces, if trimming
+      if (bTrimFields)
+      {
+        while ((i < end) && (text.charAt(i) == ' '))
+        {
+          ++i;
         }
         
-        if (bTrimFields)
+        if ((i == end) || (rowDelims.contains(text.charAt(i))))
+        {
+          break;
+        }
+      }
+      
+      if (text.charAt(i) == quote)
+      {
+        // Read until the closing quote.  Row delimiters inside the
+        // quotes are part of the field.
+        ++i;
+        while (true)
         {
-          list.add(buf.toString().trim());
+          // Copy the text up to the next quote (or backslash)
+          final int runStart = i;
+          char ch = 0;
+          while ((i < end) && ((ch = text.charAt(i)) != quote) &&
+                 ((!escapes) || (ch != '\\')))
+          {
+            ++i;
+          }
+          
+          appendText(text, runStart, i, record);
+          
+          // A quoted field that reaches the end of the text ends
+          // there.  A quote or backslash at the end of the available
+          // text needs the next character to be read.
+          if (i == end)
+          {
+            break;
+          }
+          else if (i == (end - 1))
+          {
+            if (!atEnd)
+            {
+              return -1;
+            }
+            
+            ++i;
+            if (ch == '\\')
+            {
+              record.append(ch);
+            }
+            break;
+          }
+          
+          final char next = text.charAt(i + 1);
+          if (ch == '\\')
+          {
+            record.append(unescape(next));
+            i += 2;
+          }
+          else if (next == quote)
+          {
+            // Two quotes in a row are one quote
+            record.append(quote);
+            i += 2;
+          }
+          else
+          {
+            // The closing quote
+            ++i;
+            break;
+          }
         }
-        else
+        
+        // Keep any text between the closing quote and the separator
+        i = parseUnquotedField(text, i, end, atEnd, escapes, record);
+        if (i < 0)
         {
-          list.add(buf.toString());
+          return -1;
         }
         
+        record.endField(false);
+      }
+      else
+      {
+        i = parseUnquotedField(text, i, end, atEnd, escapes, record);
+        if (i < 0)
+        {
+          return -1;
+        }
+        
+        record.endField(bTrimFields);
+      }
+      
+      // Skip the separator
+      bAfterSeparator = (i < end) && (seps.contains(text.charAt(i)));
+      if (bAfterSeparator)
+      {
         ++i;
       }
-    } // while (i < nLen) - end
+    }
     
-    // Check for a trailing comma
-    if (sSeparators.indexOf(sInput.charAt(nLen - 1)) >= 0)
+    return endRecord(i, end, atEnd, bAfterSeparator, record);
+  }
+  
+  
+  /**
+   * Add the characters of an unquoted field to the record, up to
+   * the next separator or row delimiter.
+   * 
+   * @param text the text to parse
+   * @param index the index of the start of the field
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param escapes whether a backslash escapes the next character
+   * @param record the record to hold the fields
+   * @return the index of the end of the field, or -1 if more text
+   *         is needed to find the end
+   */
+  private int parseUnquotedField(final CharSequence text, final int index,
+                                 final int end, final boolean atEnd,
+                                 final boolean escapes,
+                                 final CSVRecord record)
+  {
+    int i = index;
+    while (true)
+    {
+      final int fieldStart = i;
+      i = scanField(text, i, end);
+      appendText(text, fieldStart, i, record);
+      
+      // The scan stops at a backslash only if it's an escape
+      if ((!escapes) || (i == end) || (text.charAt(i) != '\\'))
+      {
+        return i;
+      }
+      else if (i == (end - 1))
+      {
+        // A backslash at the end of the text is kept
+        if (!atEnd)
+        {
+          return -1;
+        }
+        
+        record.append('\\');
+        return end;
+      }
+      
+      record.append(unescape(text.charAt(i + 1)));
+      i += 2;
+    }
+  }
+  
+  
+  /**
+   * Parses the fields of one record with the TSV dialect, which
+   * has no quotes.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  private int parseUnquoted(final CharSequence text, final int start,
+                            final int end, final boolean atEnd,
+                            final DelimiterSet rowDelims,
+                            final CSVRecord record)
+  {
+    final DelimiterSet seps = separatorSet;
+    boolean bAfterSeparator = false;
+    int i = start;
+    while ((i < end) && (!rowDelims.contains(text.charAt(i))))
+    {
+      // When parsing a single line, stop after the last field needed
+      if ((rowDelims == NO_ROW_DELIMITERS) && (record.isFull()))
+      {
+        return i;
+      }
+      
+      final int fieldStart = i;
+      i = scanField(text, i, end);
+      appendText(text, fieldStart, i, record);
+      record.endField(bTrimFields);
+      
+      bAfterSeparator = (i < end) && (seps.contains(text.charAt(i)));
+      if (bAfterSeparator)
+      {
+        ++i;
+      }
+    }
+    
+    return endRecord(i, end, atEnd, bAfterSeparator, record);
+  }
+  
+  
+  /**
+   * Add a range of the text to the field being built.  If the text
+   * is in an array, the characters are copied in bulk.
+   * 
+   * @param text the text being parsed
+   * @param start the index of the first character
+   * @param end the index after the last character
+   * @param record the record holding the field
+   */
+  private void appendText(final CharSequence text, final int start,
+                          final int end, final CSVRecord record)
+  {
+    if (scanArray != null)
+    {
+      record.append(scanArray, scanOffset + start, scanOffset + end);
+    }
+    else
+    {
+      record.append(text, start, end);
+    }
+  }
+  
+  
+  /**
+   * Returns the index of the next character that ends an unquoted
+   * field (see prepareScan()), or end if there is none.
+   * 
+   * @param text the text to scan
+   * @param index the index to start at
+   * @param end the index of the end of the available text
+   * @return the index of the end of the field
+   */
+  private int scanField(final CharSequence text, final int index,
+                        final int end)
+  {
+    final DelimiterSet targets = scanSet;
+    int i = index;
+    if (scanArray == null)
+    {
+      while ((i < end) && (!targets.contains(text.charAt(i))))
+      {
+        ++i;
+      }
+    }
+    else if (scanLanes != null)
+    {
+      // Scan a word at a time if there are few enough targets
+      i = CharScanner.indexOfAny(scanArray, scanOffset + i, scanOffset + end,
+                                 scanTargets, scanLanes) - scanOffset;
+    }
+    else
+    {
+      final char[] array = scanArray;
+      final int offset = scanOffset;
+      while ((i < end) && (!targets.contains(array[offset + i])))
+      {
+        ++i;
+      }
+    }
+    
+    return i;
+  }
+  
+  
+  /**
+   * Finish parsing a record.
+   * 
+   * @param index the index where parsing stopped
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param afterSeparator whether the record ends with a separator,
+   *                       so it ends with an empty field
+   * @param record the record to hold the fields
+   * @return the index of the end of the record, or -1 if more text
+   *         is needed
+   */
+  private static int endRecord(final int index, final int end,
+                               final boolean atEnd,
+                               final boolean afterSeparator,
+                               final CSVRecord record)
+  {
+    // Check if more text is needed
+    if ((index == end) && (!atEnd))
+    {
+      return -1;
+    }
+    
+    if (afterSeparator)
+    {
+      record.endField(false);
+    }
+    
+    return index;
+  }
+  
+  
+  /**
+   * Returns the character for a backslash escape.
+   * 
+   * @param ch the character after the backslash
+   * @return the character it stands for
+   */
+  private static char unescape(final char ch)
+  {
+    switch (ch)
+    {
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case '0':
+        return '\0';
+      default:
+        return ch;
+    }
+  }
+  
+  
+  /**
+   * Build the list of characters that end an unquoted field, if
+   * the row delimiters have changed since the last call.  With
+   * the backslash dialect, a backslash also ends the scan.
+   * 
+   * @param rowDelims the row delimiters
+   */
+  private void prepareScan(final DelimiterSet rowDelims)
+  {
+    if (scanRowDelims == rowDelims)
     {
-      list.add("");
+      return;
     }
     
-    // Return the list as an iterator
-    return list;
+    scanRowDelims = rowDelims;
+    scanSet = new DelimiterSet(new String(separatorSet.getChars()) +
+                               new String(rowDelims.getChars()) +
+                               ((dialect == Dialect.BACKSLASH) ? "\\" : ""));
+    scanTargets = scanSet.getChars();
+    scanLanes = CharScanner.toLanes(scanTargets);
   }
   
   
@@ -363,6 +881,29 @@ public final class CSVReader
   }
   
   
+  /**
+   * Return the rules for quoting fields.
+   * 
+   * @return the dialect
+   */
+  public Dialect getDialect()
+  {
+    return dialect;
+  }
+  
+  
+  /**
+   * Set the rules for quoting fields.
+   * 
+   * @param newDialect the new dialect
+   */
+  public void setDialect(final Dialect newDialect)
+  {
+    dialect = newDialect;
+    scanRowDelims = null;
+  }
+  
+  
   /**
    * Get the field separators.
    * 
@@ -374,6 +915,33 @@ public final class CSVReader
   }
   
   
+  /**
+   * Returns whether the quote character and the field separators
+   * are all ASCII, so fields can be found in UTF-8 text before it
+   * is decoded (see Utf8RecordReader).
+   * 
+   * @return whether the delimiters are all ASCII
+   */
+  boolean hasAsciiDelimiters()
+  {
+    if (cQuote >= 0x80)
+    {
+      return false;
+    }
+    
+    final int nLen = (sSeparators == null) ? 0 : sSeparators.length();
+    for (int i = 0; i < nLen; ++i)
+    {
+      if (sSeparators.charAt(i) >= 0x80)
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
   /**
    * Set the column delimiters.
    * 
@@ -382,6 +950,8 @@ public final class CSVReader
   public void setSeparators(final String separators)
   {
     sSeparators = separators;
+    separatorSet = new DelimiterSet(separators);
+    scanRowDelims = null;
   }
   
   
@@ -0,0 +1,644 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A reusable record holding the fields of one row of input.  The
+ * characters of all fields are copied, a range at a time, into a
+ * single buffer owned by the record, and each field is a pair of
+ * offsets into it, so parsing a row into a record that is reused
+ * allocates nothing once the buffers are large enough.  The fields
+ * are copied rather than pointing into the text being parsed,
+ * because trimming, unescaping and UTF-8 decoding change them, and
+ * the reader moves its text when it reads more.  Fields can be read as CharSequence views, appended
+ * directly to an Appendable, or read as Strings, which are only
+ * created when asked for.  The views and the contents of the
+ * record are only valid until the record is reused for the next row.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CSVRecord extends AbstractList<String>
+  implements RandomAccess
+{
+  /**
+   * The characters of all fields.
+   */
+  private char[] chars = new char[256];
+  
+  /**
+   * The number of characters used in the buffer.
+   */
+  private int length = 0;
+  
+  /**
+   * The start offset of each field.
+   */
+  private int[] starts = new int[20];
+  
+  /**
+   * The end offset of each field.
+   */
+  private int[] ends = new int[20];
+  
+  /**
+   * The number of fields.
+   */
+  private int count = 0;
+  
+  /**
+   * The start offset of the field being added.
+   */
+  private int fieldStart = 0;
+  
+  /**
+   * Which fields to keep the characters of, or null to keep every
+   * field.  The other fields are recorded as empty.
+   */
+  private boolean[] projection = null;
+  
+  /**
+   * The index of the last field to record.  Fields after it are
+   * not added to the record.
+   */
+  private int lastField = Integer.MAX_VALUE;
+  
+  /**
+   * Whether to keep the characters of the field being built.
+   */
+  private boolean keepField = true;
+  
+  /**
+   * The fields that have been converted to Strings for this row.
+   */
+  private String[] strings = new String[20];
+  
+  /**
+   * The views of the fields, reused for every row.
+   */
+  private FieldView[] views = new FieldView[20];
+  
+  
+  /**
+   * Default constructor.
+   */
+  public CSVRecord()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Returns the number of fields.
+   * 
+   * @return the number of fields
+   */
+  public int size()
+  {
+    return count;
+  }
+  
+  
+  /**
+   * Returns a field as a String.  The String is created the first
+   * time the field is asked for, and then saved until the record
+   * is reused.
+   * 
+   * @param index the zero-based index of the field
+   * @return the field
+   */
+  public String get(final int index)
+  {
+    checkIndex(index);
+    String str = strings[index];
+    if (str == null)
+    {
+      str = new String(chars, starts[index], ends[index] - starts[index]);
+      strings[index] = str;
+    }
+    
+    return str;
+  }
+  
+  
+  /**
+   * Returns a view of a field.  The view is only valid until
+   * the record is reused.
+   * 
+   * @param index the zero-based index of the field
+   * @return the field's characters
+   */
+  public CharSequence getField(final int index)
+  {
+    checkIndex(index);
+    FieldView view = views[index];
+    if (view == null)
+    {
+      view = new FieldView(index);
+      views[index] = view;
+    }
+    
+    return view;
+  }
+  
+  
+  /**
+   * Returns the length of a field.
+   * 
+   * @param index the zero-based index of the field
+   * @return the number of characters in the field
+   */
+  public int getFieldLength(final int index)
+  {
+    checkIndex(index);
+    return (ends[index] - starts[index]);
+  }
+  
+  
+  /**
+   * Append a field to out, without creating a String.
+   * 
+   * @param index the zero-based index of the field
+   * @param out where to write the field
+   * @throws IOException if out throws an exception
+   */
+  public void appendField(final int index, final Appendable out)
+    throws IOException
+  {
+    checkIndex(index);
+    final int start = starts[index];
+    final int end = ends[index];
+    if (out instanceof StringBuilder)
+    {
+      ((StringBuilder) out).append(chars, start, end - start);
+    }
+    else
+    {
+      for (int i = start; i < end; ++i)
+      {
+        out.append(chars[i]);
+      }
+    }
+  }
+  
+  
+  /**
+   * Append a field of a row to out.  If the row is a CSVRecord,
+   * the field is appended without creating a String.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @param out where to write the field
+   * @throws IOException if out throws an exception
+   */
+  static void appendField(final List<String> fields, final int index,
+                          final Appendable out)
+    throws IOException
+  {
+    if (fields instanceof CSVRecord)
+    {
+      ((CSVRecord) fields).appendField(index, out);
+    }
+    else
+    {
+      out.append(fields.get(index));
+    }
+  }
+  
+  
+  /**
+   * Remove all fields, so the record can be used for the next row.
+   */
+  void reset()
+  {
+    for (int i = 0; i < count; ++i)
+    {
+      strings[i] = null;
+    }
+    
+    length = 0;
+    count = 0;
+    fieldStart = 0;
+    keepField = isProjected(0);
+  }
+  
+  
+  /**
+   * Set which fields to keep.  The characters of fields that are
+   * not projected are skipped, and the fields are recorded as
+   * empty; fields after the last one are not recorded at all.
+   * 
+   * @param fields which fields to keep, or null for every field
+   * @param last the index of the last field to record
+   */
+  void setProjection(final boolean[] fields, final int last)
+  {
+    projection = fields;
+    lastField = last;
+  }
+  
+  
+  /**
+   * Returns whether the record has reached the last field to record,
+   * so the rest of the row can be skipped.
+   * 
+   * @return whether the record is full
+   */
+  boolean isFull()
+  {
+    return (count > lastField);
+  }
+  
+  
+  /**
+   * Returns whether to keep the characters of a field.
+   * 
+   * @param index the zero-based index of the field
+   * @return whether the field is projected
+   */
+  private boolean isProjected(final int index)
+  {
+    return ((index <= lastField) &&
+            ((projection == null) ||
+             ((index < projection.length) && projection[index])));
+  }
+  
+  
+  /**
+   * Add a character to the field being built.
+   * 
+   * @param ch the character
+   */
+  void append(final char ch)
+  {
+    if (!keepField)
+    {
+      return;
+    }
+    
+    if (length == chars.length)
+    {
+      char[] newChars = new char[chars.length * 2];
+      System.arraycopy(chars, 0, newChars, 0, length);
+      chars = newChars;
+    }
+    
+    chars[length++] = ch;
+  }
+  
+  
+  /**
+   * Add a range of characters to the field being built.
+   * 
+   * @param text the characters to add
+   * @param start the index of the first character
+   * @param end the index after the last character
+   */
+  void append(final CharSequence text, final int start, final int end)
+  {
+    if (!keepField)
+    {
+      return;
+    }
+    
+    // Copy the characters in bulk if the text is backed by an array
+    if (text instanceof CharBuffer)
+    {
+      final CharBuffer cb = (CharBuffer) text;
+      if (cb.hasArray())
+      {
+        final int offset = cb.arrayOffset() + cb.position();
+        append(cb.array(), offset + start, offset + end);
+        return;
+      }
+    }
+    
+    ensureCapacity(end - start);
+    if (text instanceof String)
+    {
+      ((String) text).getChars(start, end, chars, length);
+      length += (end - start);
+    }
+    else
+    {
+      for (int i = start; i < end; ++i)
+      {
+        chars[length++] = text.charAt(i);
+      }
+    }
+  }
+  
+  
+  /**
+   * Add a range of characters from an array to the field being built.
+   * 
+   * @param text the characters to add
+   * @param start the index of the first character
+   * @param end the index after the last character
+   */
+  void append(final char[] text, final int start, final int end)
+  {
+    if (!keepField)
+    {
+      return;
+    }
+    
+    final int nCount = end - start;
+    ensureCapacity(nCount);
+    System.arraycopy(text, start, chars, length, nCount);
+    length += nCount;
+  }
+  
+  
+  /**
+   * Make the buffer large enough for more characters.
+   * 
+   * @param nCount the number of characters to add
+   */
+  private void ensureCapacity(final int nCount)
+  {
+    if (length + nCount > chars.length)
+    {
+      char[] newChars = new char[Math.max(chars.length * 2, length + nCount)];
+      System.arraycopy(chars, 0, newChars, 0, length);
+      chars = newChars;
+    }
+  }
+  
+  
+  /**
+   * End the field being built, and start the next one.
+   * 
+   * @param trim whether to remove leading and trailing whitespace
+   *             from the field, as String.trim() does
+   */
+  void endField(final boolean trim)
+  {
+    // Fields after the last one are not recorded
+    if (count > lastField)
+    {
+      return;
+    }
+    
+    // Grow the arrays if needed
+    if (count == starts.length)
+    {
+      final int nNewSize = count * 2;
+      int[] newStarts = new int[nNewSize];
+      int[] newEnds = new int[nNewSize];
+      String[] newStrings = new String[nNewSize];
+      FieldView[] newViews = new FieldView[nNewSize];
+      System.arraycopy(starts, 0, newStarts, 0, count);
+      System.arraycopy(ends, 0, newEnds, 0, count);
+      System.arraycopy(views, 0, newViews, 0, count);
+      starts = newStarts;
+      ends = newEnds;
+      strings = newStrings;
+      views = newViews;
+    }
+    
+    // Save the offsets of the field
+    int start = fieldStart;
+    int end = length;
+    if (trim)
+    {
+      while ((start < end) && (chars[start] <= ' '))
+      {
+        ++start;
+      }
+      while ((end > start) && (chars[end - 1] <= ' '))
+      {
+        --end;
+      }
+    }
+    
+    starts[count] = start;
+    ends[count] = end;
+    ++count;
+    fieldStart = length;
+    keepField = isProjected(count);
+  }
+  
+  
+  /**
+   * Decode the fields from UTF-8.  The record must have been filled
+   * with one char per byte (0 to 255), as a parser working on bytes
+   * does.  Decoding never produces more chars than there are bytes,
+   * so the fields are decoded in place.  Malformed bytes are decoded
+   * as U+FFFD.
+   */
+  void decodeUtf8()
+  {
+    int out = 0;
+    for (int f = 0; f < count; ++f)
+    {
+      final int end = ends[f];
+      int in = starts[f];
+      starts[f] = out;
+      while (in < end)
+      {
+        // Check for ASCII
+        final int b = chars[in];
+        if (b < 0x80)
+        {
+          chars[out++] = (char) b;
+          ++in;
+          continue;
+        }
+        
+        // Work out the length of the sequence and the valid range of
+        // the second byte, which rejects overlong forms and
+        // surrogates
+        int nBytes = 0;
+        int min = 0x80;
+        int max = 0xBF;
+        if ((b >= 0xC2) && (b <= 0xDF))
+        {
+          nBytes = 2;
+        }
+        else if ((b >= 0xE0) && (b <= 0xEF))
+        {
+          nBytes = 3;
+          min = (b == 0xE0) ? 0xA0 : 0x80;
+          max = (b == 0xED) ? 0x9F : 0xBF;
+        }
+        else if ((b >= 0xF0) && (b <= 0xF4))
+        {
+          nBytes = 4;
+          min = (b == 0xF0) ? 0x90 : 0x80;
+          max = (b == 0xF4) ? 0x8F : 0xBF;
+        }
+        
+        // Count the valid bytes of the sequence.  If the sequence is
+        // malformed, its valid start is replaced by one U+FFFD, as
+        // the UTF-8 decoder of the JDK does.
+        int nValid = 1;
+        if ((nBytes > 0) && (in + 1 < end) &&
+            (chars[in + 1] >= min) && (chars[in + 1] <= max))
+        {
+          nValid = 2;
+          while ((nValid < nBytes) && (in + nValid < end) &&
+                 ((chars[in + nValid] & 0xC0) == 0x80))
+          {
+            ++nValid;
+          }
+        }
+        
+        if (nValid < Math.max(nBytes, 2))
+        {
+          chars[out++] = '\uFFFD';
+          in += nValid;
+          continue;
+        }
+        
+        // Decode the code point
+        int codePoint = b & (0xFF >> (nBytes + 1));
+        for (int i = 1; i < nBytes; ++i)
+        {
+          codePoint = (codePoint << 6) | (chars[in + i] & 0x3F);
+        }
+        in += nBytes;
+        
+        if (codePoint >= 0x10000)
+        {
+          codePoint -= 0x10000;
+          chars[out++] = (char) (0xD800 + (codePoint >> 10));
+          chars[out++] = (char) (0xDC00 + (codePoint & 0x3FF));
+        }
+        else
+        {
+          chars[out++] = (char) codePoint;
+        }
+      }
+      
+      ends[f] = out;
+    }
+    
+    length = out;
+  }
+  
+  
+  /**
+   * Throw an exception if index is not the index of a field.
+   * 
+   * @param index the zero-based index of the field
+   */
+  private void checkIndex(final int index)
+  {
+    if ((index < 0) || (index >= count))
+    {
+      throw (new IndexOutOfBoundsException("Index: " + index + ", Size: " + count));
+    }
+  }
+  
+  
+  /**
+   * A view of one field of the record.  A view reads the record's
+   * buffer, so it shows whatever field is at its index in the
+   * current row.
+   */
+  private final class FieldView implements CharSequence
+  {
+    /**
+     * The zero-based index of the field.
+     */
+    private final int fieldIndex;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param index the zero-based index of the field
+     */
+    FieldView(final int index)
+    {
+      super();
+      fieldIndex = index;
+    }
+    
+    
+    /**
+     * Returns the length of the field.
+     * 
+     * @return the length of the field
+     */
+    public int length()
+    {
+      return (ends[fieldIndex] - starts[fieldIndex]);
+    }
+    
+    
+    /**
+     * Returns a character of the field.
+     * 
+     * @param index the index of the character within the field
+     * @return the character
+     */
+    public char charAt(final int index)
+    {
+      if ((index < 0) || (index >= length()))
+      {
+        throw (new IndexOutOfBoundsException("Index: " + index));
+      }
+      
+      return chars[starts[fieldIndex] + index];
+    }
+    
+    
+    /**
+     * Returns part of the field.
+     * 
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the characters between start and end
+     */
+    public CharSequence subSequence(final int start, final int end)
+    {
+      return toString().substring(start, end);
+    }
+    
+    
+    /**
+     * Returns the field as a String.
+     * 
+     * @return the field
+     */
+    public String toString()
+    {
+      return get(fieldIndex);
+    }
+  }
+}
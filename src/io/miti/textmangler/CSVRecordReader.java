@@ -0,0 +1,294 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Reads records from a Reader or a CharSequence (such as a String
+ * or CharBuffer) in a single pass.  Each call to next() parses the
+ * next row into a CSVRecord, using a RowParser such as CSVReader.  The
+ * text is copied into a buffer a block at a time, so the parser can
+ * scan it a word at a time (see CharScanner).  Rows
+ * are separated by any of the row delimiter characters, and empty
+ * rows are skipped, as StringTokenizer does; but a row delimiter
+ * inside a quoted field is part of the field, so a quoted field
+ * can span several lines.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CSVRecordReader implements RecordSource
+{
+  /**
+   * The size of the buffer used with a Reader.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  
+  /**
+   * The parser for the fields of each row.
+   */
+  private final RowParser parser;
+  
+  /**
+   * The row delimiters.
+   */
+  private final DelimiterSet rowDelims;
+  
+  /**
+   * The source of the text, or null if the text is a CharSequence.
+   */
+  private final Reader reader;
+  
+  /**
+   * The source of the text, or null if the text is from a Reader.
+   */
+  private final CharSequence source;
+  
+  /**
+   * The index of the next character to copy from source.
+   */
+  private int sourcePosition = 0;
+  
+  /**
+   * The buffer holding the text being parsed.
+   */
+  private char[] buffer = new char[BUFFER_SIZE];
+  
+  /**
+   * A view of the buffer.
+   */
+  private CharBuffer text = CharBuffer.wrap(buffer);
+  
+  /**
+   * The index of the next character to parse.
+   */
+  private int position = 0;
+  
+  /**
+   * The index after the last available character.
+   */
+  private int limit = 0;
+  
+  /**
+   * Whether there is no more text after limit.
+   */
+  private boolean eof = false;
+  
+  /**
+   * The number of characters before the start of the buffer.
+   */
+  private long charsBeforeBuffer = 0L;
+  
+  
+  /**
+   * Constructor taking a reader.
+   * 
+   * @param in the source of the text
+   * @param rowParser the parser for the fields of each row
+   * @param rowDelimiters the row delimiter characters
+   */
+  public CSVRecordReader(final Reader in, final RowParser rowParser,
+                         final String rowDelimiters)
+  {
+    super();
+    parser = rowParser;
+    rowDelims = new DelimiterSet(rowDelimiters);
+    reader = in;
+    source = null;
+  }
+  
+  
+  /**
+   * Constructor taking the text to parse.
+   * 
+   * @param input the text to parse
+   * @param rowParser the parser for the fields of each row
+   * @param rowDelimiters the row delimiter characters
+   */
+  public CSVRecordReader(final CharSequence input, final RowParser rowParser,
+                         final String rowDelimiters)
+  {
+    super();
+    parser = rowParser;
+    rowDelims = new DelimiterSet(rowDelimiters);
+    reader = null;
+    source = input;
+  }
+  
+  
+  /**
+   * Parse the next row into a record.
+   * 
+   * @param record the record to hold the fields
+   * @return true if a row was read, or false at the end of the text
+   * @throws IOException if the reader throws an exception
+   */
+  public boolean next(final CSVRecord record) throws IOException
+  {
+    while (true)
+    {
+      // Skip any empty rows
+      while ((position < limit) && (rowDelims.contains(text.charAt(position))))
+      {
+        ++position;
+      }
+      
+      // Check for the end of the available text
+      if (position == limit)
+      {
+        if (eof)
+        {
+          return false;
+        }
+        
+        fill();
+        continue;
+      }
+      
+      // Parse the row; if it runs past the end of the buffer, read
+      // more text and parse it again
+      final int rowEnd = parser.parseRecord(text, position, limit, eof,
+                                            rowDelims, record);
+      if (rowEnd < 0)
+      {
+        fill();
+        continue;
+      }
+      
+      position = rowEnd;
+      return true;
+    }
+  }
+  
+  
+  /**
+   * Close the reader, if there is one.
+   * 
+   * @throws IOException if the reader throws an exception
+   */
+  public void close() throws IOException
+  {
+    if (reader != null)
+    {
+      reader.close();
+    }
+  }
+  
+  
+  /**
+   * Returns the number of characters parsed so far.
+   * 
+   * @return the number of characters parsed
+   */
+  public long getPosition()
+  {
+    return (charsBeforeBuffer + position);
+  }
+  
+  
+  /**
+   * Move the unparsed text to the start of the buffer, and read more
+   * text after it.  The buffer is made larger if a row does not fit.
+   * 
+   * @throws IOException if the reader throws an exception
+   */
+  private void fill() throws IOException
+  {
+    // Move the unparsed text to the start of the buffer
+    final int nRemaining = limit - position;
+    if (position > 0)
+    {
+      System.arraycopy(buffer, position, buffer, 0, nRemaining);
+      charsBeforeBuffer += position;
+      position = 0;
+      limit = nRemaining;
+    }
+    else if (limit == buffer.length)
+    {
+      // The buffer is full of one row, so make it larger
+      char[] newBuffer = new char[buffer.length * 2];
+      System.arraycopy(buffer, 0, newBuffer, 0, limit);
+      buffer = newBuffer;
+      text = CharBuffer.wrap(buffer);
+    }
+    
+    // Copy the next block of the source, if it's a CharSequence
+    if (source != null)
+    {
+      copySource();
+      return;
+    }
+    
+    // Read at least one character, or reach the end of the input
+    while (limit < buffer.length)
+    {
+      final int nRead = reader.read(buffer, limit, buffer.length - limit);
+      if (nRead < 0)
+      {
+        eof = true;
+        break;
+      }
+      else if (nRead > 0)
+      {
+        limit += nRead;
+        break;
+      }
+    }
+  }
+  
+  
+  /**
+   * Copy as much of the source as fits into the buffer.
+   */
+  private void copySource()
+  {
+    final int nCount = Math.min(buffer.length - limit,
+                                source.length() - sourcePosition);
+    if (source instanceof String)
+    {
+      ((String) source).getChars(sourcePosition, sourcePosition + nCount,
+                                 buffer, limit);
+    }
+    else
+    {
+      for (int i = 0; i < nCount; ++i)
+      {
+        buffer[limit + i] = source.charAt(sourcePosition + i);
+      }
+    }
+    
+    sourcePosition += nCount;
+    limit += nCount;
+    eof = (sourcePosition == source.length());
+  }
+}
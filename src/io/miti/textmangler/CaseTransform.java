@@ -0,0 +1,256 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Case conversions that write the converted text directly to
+ * the output, without creating temporary strings.  Text that is
+ * all ASCII is converted one character at a time; any other
+ * text falls back to the String methods, which handle characters
+ * that change length and supplementary characters correctly.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class CaseTransform
+{
+  /**
+   * Default constructor.
+   */
+  private CaseTransform()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Write the text in lowercase.
+   * 
+   * @param text the text to convert
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  static void appendLower(final CharSequence text, final Appendable out)
+    throws IOException
+  {
+    // Check if the text can be converted one character at a time
+    if (!isAsciiFastPath(text))
+    {
+      out.append(text.toString().toLowerCase());
+      return;
+    }
+    
+    final int nLen = text.length();
+    for (int i = 0; i < nLen; ++i)
+    {
+      out.append(toLower(text.charAt(i)));
+    }
+  }
+  
+  
+  /**
+   * Write the text in uppercase.
+   * 
+   * @param text the text to convert
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  static void appendUpper(final CharSequence text, final Appendable out)
+    throws IOException
+  {
+    // Check if the text can be converted one character at a time
+    if (!isAsciiFastPath(text))
+    {
+      out.append(text.toString().toUpperCase());
+      return;
+    }
+    
+    final int nLen = text.length();
+    for (int i = 0; i < nLen; ++i)
+    {
+      out.append(toUpper(text.charAt(i)));
+    }
+  }
+  
+  
+  /**
+   * Write the text in titlecase, as Utility.toTitleCase() does:
+   * the text is made lowercase, and the first character, and each
+   * character after a space, '(', '-' or '/', is made uppercase.
+   * 
+   * @param text the text to convert
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  static void appendTitle(final CharSequence text, final Appendable out)
+    throws IOException
+  {
+    // A single character is just made uppercase
+    final int nLen = text.length();
+    if (nLen == 1)
+    {
+      appendUpper(text, out);
+      return;
+    }
+    
+    // Check if the text can be converted one character at a time
+    if (!isAsciiFastPath(text))
+    {
+      appendTitleCodePoints(text.toString().toLowerCase(), out);
+      return;
+    }
+    
+    // Set this to true because we want to make the first character uppercase
+    boolean blankFound = true;
+    for (int i = 0; i < nLen; ++i)
+    {
+      final char ch = text.charAt(i);
+      if (isWordSeparator(ch))
+      {
+        blankFound = true;
+        out.append(ch);
+      }
+      else
+      {
+        out.append(blankFound ? toUpper(ch) : toLower(ch));
+        blankFound = false;
+      }
+    }
+  }
+  
+  
+  /**
+   * Write lowercase text in titlecase, one code point at a time,
+   * so supplementary characters are converted too.
+   * 
+   * @param lower the text, already in lowercase
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  private static void appendTitleCodePoints(final String lower,
+                                            final Appendable out)
+    throws IOException
+  {
+    boolean blankFound = true;
+    final int nLen = lower.length();
+    int index = 0;
+    while (index < nLen)
+    {
+      int codePoint = lower.codePointAt(index);
+      index += Character.charCount(codePoint);
+      if ((codePoint < 0x80) && (isWordSeparator((char) codePoint)))
+      {
+        blankFound = true;
+      }
+      else
+      {
+        if (blankFound)
+        {
+          codePoint = Character.toUpperCase(codePoint);
+        }
+        blankFound = false;
+      }
+      
+      // Write the code point
+      if (Character.isSupplementaryCodePoint(codePoint))
+      {
+        out.append(new String(Character.toChars(codePoint)));
+      }
+      else
+      {
+        out.append((char) codePoint);
+      }
+    }
+  }
+  
+  
+  /**
+   * Returns whether the text is all ASCII, and the default locale
+   * converts ASCII characters as usual.  (In Turkish, Azeri and
+   * Lithuanian, 'i' and 'I' are converted differently.)
+   * 
+   * @param text the text to check
+   * @return whether the text can be converted one character at a time
+   */
+  private static boolean isAsciiFastPath(final CharSequence text)
+  {
+    final int nLen = text.length();
+    for (int i = 0; i < nLen; ++i)
+    {
+      if (text.charAt(i) >= 0x80)
+      {
+        return false;
+      }
+    }
+    
+    final String language = Locale.getDefault().getLanguage();
+    return (!language.equals("tr") && !language.equals("az") &&
+            !language.equals("lt"));
+  }
+  
+  
+  /**
+   * Returns whether the character starts a new word for titlecase.
+   * 
+   * @param ch the character
+   * @return whether the next character should be made uppercase
+   */
+  private static boolean isWordSeparator(final char ch)
+  {
+    return ((ch == ' ') || (ch == '(') || (ch == '-') || (ch == '/'));
+  }
+  
+  
+  /**
+   * Convert an ASCII character to lowercase.
+   * 
+   * @param ch the character
+   * @return the lowercase character
+   */
+  private static char toLower(final char ch)
+  {
+    return (((ch >= 'A') && (ch <= 'Z')) ? (char) (ch + ('a' - 'A')) : ch);
+  }
+  
+  
+  /**
+   * Convert an ASCII character to uppercase.
+   * 
+   * @param ch the character
+   * @return the uppercase character
+   */
+  private static char toUpper(final char ch)
+  {
+    return (((ch >= 'a') && (ch <= 'z')) ? (char) (ch - ('a' - 'A')) : ch);
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+/**
+ * Finds the next structural character (such as a field separator
+ * or row delimiter) in a char array.  When there are only a few
+ * characters to look for, the array is scanned four characters at
+ * a time: the characters are packed into a long, and each 16-bit
+ * lane is compared to every target at once with SWAR (SIMD within
+ * a register) arithmetic.  Otherwise, and for the last few
+ * characters, the array is scanned one character at a time.  Both
+ * paths return the same result.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class CharScanner
+{
+  /**
+   * The most targets the SWAR path is used for.  With more, the
+   * per-word cost of comparing every target outweighs the benefit.
+   */
+  static final int MAX_SWAR_TARGETS = 4;
+  
+  /**
+   * A one in the low bit of every 16-bit lane.
+   */
+  private static final long LANE_ONES = 0x0001000100010001L;
+  
+  /**
+   * A one in the high bit of every 16-bit lane.
+   */
+  private static final long LANE_HIGH_BITS = 0x8000800080008000L;
+  
+  
+  /**
+   * Default constructor.
+   */
+  private CharScanner()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the index of the first character in buf, between from
+   * and to, that is one of the targets.
+   * 
+   * @param buf the characters to search
+   * @param from the index to start at
+   * @param to the index to stop at
+   * @param targets the characters to look for
+   * @param lanes the targets repeated in each lane (see toLanes())
+   * @return the index of the first target, or to if there is none
+   */
+  static int indexOfAny(final char[] buf, final int from, final int to,
+                        final char[] targets, final long[] lanes)
+  {
+    if (lanes == null)
+    {
+      return indexOfAnyScalar(buf, from, to, targets);
+    }
+    
+    // Check four characters at a time
+    int i = from;
+    final int nTargets = lanes.length;
+    while (i + 4 <= to)
+    {
+      // Pack the characters into a long, the first in the low lane
+      final long word = buf[i] | ((long) buf[i + 1] << 16) |
+                        ((long) buf[i + 2] << 32) | ((long) buf[i + 3] << 48);
+      
+      // Set the high bit of each lane that matches a target.  A lane
+      // above a match may also be set, but the lowest set lane is
+      // always a true match.
+      long found = 0L;
+      for (int t = 0; t < nTargets; ++t)
+      {
+        final long x = word ^ lanes[t];
+        found |= (x - LANE_ONES) & ~x & LANE_HIGH_BITS;
+      }
+      
+      if (found != 0L)
+      {
+        return (i + (Long.numberOfTrailingZeros(found) >>> 4));
+      }
+      
+      i += 4;
+    }
+    
+    // Check the remaining characters
+    return indexOfAnyScalar(buf, i, to, targets);
+  }
+  
+  
+  /**
+   * Return the index of the first character in buf, between from
+   * and to, that is one of the targets, checking one character
+   * at a time.
+   * 
+   * @param buf the characters to search
+   * @param from the index to start at
+   * @param to the index to stop at
+   * @param targets the characters to look for
+   * @return the index of the first target, or to if there is none
+   */
+  static int indexOfAnyScalar(final char[] buf, final int from, final int to,
+                              final char[] targets)
+  {
+    final int nTargets = targets.length;
+    for (int i = from; i < to; ++i)
+    {
+      final char ch = buf[i];
+      for (int t = 0; t < nTargets; ++t)
+      {
+        if (ch == targets[t])
+        {
+          return i;
+        }
+      }
+    }
+    
+    return to;
+  }
+  
+  
+  /**
+   * Repeat each target in every lane of a long, for indexOfAny().
+   * 
+   * @param targets the characters to look for
+   * @return the repeated targets, or null if there are too many
+   *         targets for the SWAR path
+   */
+  static long[] toLanes(final char[] targets)
+  {
+    if (targets.length > MAX_SWAR_TARGETS)
+    {
+      return null;
+    }
+    
+    long[] lanes = new long[targets.length];
+    for (int t = 0; t < targets.length; ++t)
+    {
+      lanes[t] = targets[t] * LANE_ONES;
+    }
+    
+    return lanes;
+  }
+}
@@ -0,0 +1,648 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal writer for Java class files.  It supports just enough
+ * of the class file format to build a public final class with a
+ * handful of methods: the constant pool, method bodies with a
+ * Code attribute, and forward branches.  The class files use
+ * version 49 (Java 5), so no stack map frames are needed.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class ClassFileWriter
+{
+  /** The iconst_0 instruction. */
+  static final int ICONST_0 = 0x03;
+  
+  /** The lload instruction. */
+  static final int LLOAD = 0x16;
+  
+  /** The aload instruction. */
+  static final int ALOAD = 0x19;
+  
+  /** The pop instruction. */
+  static final int POP = 0x57;
+  
+  /** The ifeq instruction. */
+  static final int IFEQ = 0x99;
+  
+  /** The goto instruction. */
+  static final int GOTO = 0xA7;
+  
+  /** The tableswitch instruction. */
+  static final int TABLESWITCH = 0xAA;
+  
+  /** The return instruction. */
+  static final int RETURN = 0xB1;
+  
+  /** The invokevirtual instruction. */
+  static final int INVOKEVIRTUAL = 0xB6;
+  
+  /** The invokespecial instruction. */
+  static final int INVOKESPECIAL = 0xB7;
+  
+  /** The invokestatic instruction. */
+  static final int INVOKESTATIC = 0xB8;
+  
+  /** The invokeinterface instruction. */
+  static final int INVOKEINTERFACE = 0xB9;
+  
+  /** The public access flag. */
+  private static final int ACC_PUBLIC = 0x0001;
+  
+  /** The final access flag. */
+  private static final int ACC_FINAL = 0x0010;
+  
+  /** The super access flag (always set on classes). */
+  private static final int ACC_SUPER = 0x0020;
+  
+  /**
+   * The largest method body we generate.  Branch offsets are
+   * 16-bit signed values, so keep the code below that.
+   */
+  static final int MAX_CODE_LENGTH = 32767;
+  
+  /**
+   * The constant pool entries written so far.
+   */
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream(1024);
+  
+  /**
+   * Stream wrapping poolBytes.
+   */
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  
+  /**
+   * The number of constant pool slots used, plus one.
+   */
+  private int poolCount = 1;
+  
+  /**
+   * Map of constant pool entries (as a key string) to their index.
+   */
+  private final Map<String, Integer> poolIndex = new HashMap<String, Integer>(64);
+  
+  /**
+   * The methods written so far.
+   */
+  private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream(4096);
+  
+  /**
+   * Stream wrapping methodBytes.
+   */
+  private final DataOutputStream methods = new DataOutputStream(methodBytes);
+  
+  /**
+   * The number of methods written so far.
+   */
+  private int methodCount = 0;
+  
+  /**
+   * The body of the method being written.
+   */
+  private byte[] code = new byte[1024];
+  
+  /**
+   * The length of the method being written.
+   */
+  private int codeLength = 0;
+  
+  
+  /**
+   * Default constructor.
+   */
+  ClassFileWriter()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the index of a UTF-8 constant.
+   * 
+   * @param value the string
+   * @return the constant pool index
+   * @throws IOException if the string is too long for a class file
+   */
+  int utf8(final String value) throws IOException
+  {
+    final String key = "U" + value;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      pool.writeByte(1);
+      pool.writeUTF(value);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Return the index of an integer constant.
+   * 
+   * @param value the integer
+   * @return the constant pool index
+   * @throws IOException if the pool cannot be written
+   */
+  int integer(final int value) throws IOException
+  {
+    final String key = "I" + value;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      pool.writeByte(3);
+      pool.writeInt(value);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Return the index of a class constant.
+   * 
+   * @param internalName the class name, using slashes (e.g., java/lang/Object)
+   * @return the constant pool index
+   * @throws IOException if the pool cannot be written
+   */
+  int classRef(final String internalName) throws IOException
+  {
+    final String key = "C" + internalName;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      final int name = utf8(internalName);
+      pool.writeByte(7);
+      pool.writeShort(name);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Return the index of a string constant.
+   * 
+   * @param value the string
+   * @return the constant pool index
+   * @throws IOException if the string is too long for a class file
+   */
+  int string(final String value) throws IOException
+  {
+    final String key = "S" + value;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      final int name = utf8(value);
+      pool.writeByte(8);
+      pool.writeShort(name);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Return the index of a method reference.
+   * 
+   * @param owner the internal name of the class declaring the method
+   * @param name the method name
+   * @param desc the method descriptor
+   * @param isInterface whether owner is an interface
+   * @return the constant pool index
+   * @throws IOException if the pool cannot be written
+   */
+  int methodRef(final String owner, final String name, final String desc,
+                final boolean isInterface) throws IOException
+  {
+    final String key = (isInterface ? "J" : "M") + owner + "." + name + desc;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      final int nOwner = classRef(owner);
+      final int nNameAndType = nameAndType(name, desc);
+      pool.writeByte(isInterface ? 11 : 10);
+      pool.writeShort(nOwner);
+      pool.writeShort(nNameAndType);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Return the index of a name-and-type constant.
+   * 
+   * @param name the member name
+   * @param desc the member descriptor
+   * @return the constant pool index
+   * @throws IOException if the pool cannot be written
+   */
+  private int nameAndType(final String name, final String desc)
+    throws IOException
+  {
+    final String key = "N" + name + ":" + desc;
+    Integer index = poolIndex.get(key);
+    if (index == null)
+    {
+      final int nName = utf8(name);
+      final int nDesc = utf8(desc);
+      pool.writeByte(12);
+      pool.writeShort(nName);
+      pool.writeShort(nDesc);
+      index = addPoolEntry(key, 1);
+    }
+    
+    return index.intValue();
+  }
+  
+  
+  /**
+   * Record a new constant pool entry.
+   * 
+   * @param key the key for the entry
+   * @param slots the number of slots the entry uses
+   * @return the index of the new entry
+   * @throws IOException if the constant pool is full
+   */
+  private Integer addPoolEntry(final String key, final int slots)
+    throws IOException
+  {
+    final Integer index = Integer.valueOf(poolCount);
+    poolCount += slots;
+    if (poolCount > 0xFFFF)
+    {
+      throw (new IOException("The constant pool is full"));
+    }
+    
+    poolIndex.put(key, index);
+    return index;
+  }
+  
+  
+  /**
+   * Write an instruction (or any single byte) to the method body.
+   * 
+   * @param value the byte to write
+   */
+  void op(final int value)
+  {
+    if (codeLength == code.length)
+    {
+      byte[] newCode = new byte[code.length * 2];
+      System.arraycopy(code, 0, newCode, 0, codeLength);
+      code = newCode;
+    }
+    
+    code[codeLength++] = (byte) value;
+  }
+  
+  
+  /**
+   * Write a two-byte value to the method body.
+   * 
+   * @param value the value to write
+   */
+  void u2(final int value)
+  {
+    op(value >> 8);
+    op(value);
+  }
+  
+  
+  /**
+   * Write an instruction that takes a local variable index.
+   * 
+   * @param opcode the instruction
+   * @param local the local variable index (less than 256)
+   */
+  void local(final int opcode, final int local)
+  {
+    op(opcode);
+    op(local);
+  }
+  
+  
+  /**
+   * Write an instruction that takes a constant pool index.
+   * 
+   * @param opcode the instruction
+   * @param index the constant pool index
+   */
+  void poolOp(final int opcode, final int index)
+  {
+    op(opcode);
+    u2(index);
+  }
+  
+  
+  /**
+   * Push a constant from the pool (ldc or ldc_w).
+   * 
+   * @param index the constant pool index
+   */
+  void ldc(final int index)
+  {
+    if (index < 256)
+    {
+      op(0x12);
+      op(index);
+    }
+    else
+    {
+      poolOp(0x13, index);
+    }
+  }
+  
+  
+  /**
+   * Push an integer constant, using the shortest instruction.
+   * 
+   * @param value the value to push
+   * @throws IOException if the constant pool is full
+   */
+  void pushInt(final int value) throws IOException
+  {
+    if ((value >= -1) && (value <= 5))
+    {
+      op(ICONST_0 + value);
+    }
+    else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE))
+    {
+      op(0x10);
+      op(value);
+    }
+    else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE))
+    {
+      op(0x11);
+      u2(value);
+    }
+    else
+    {
+      ldc(integer(value));
+    }
+  }
+  
+  
+  /**
+   * Push a string constant.
+   * 
+   * @param value the string to push
+   * @throws IOException if the string is too long for a class file
+   */
+  void pushString(final String value) throws IOException
+  {
+    ldc(string(value));
+  }
+  
+  
+  /**
+   * Call a method on an interface.
+   * 
+   * @param owner the internal name of the interface
+   * @param name the method name
+   * @param desc the method descriptor
+   * @param argSlots the number of stack slots taken by the arguments
+   *                 (not including the receiver)
+   * @throws IOException if the constant pool is full
+   */
+  void invokeInterface(final String owner, final String name,
+                       final String desc, final int argSlots)
+    throws IOException
+  {
+    poolOp(INVOKEINTERFACE, methodRef(owner, name, desc, true));
+    op(argSlots + 1);
+    op(0);
+  }
+  
+  
+  /**
+   * Write a branch instruction whose target is not yet known.
+   * 
+   * @param opcode the branch instruction
+   * @return the position of the branch, to pass to bindBranch()
+   */
+  int branch(final int opcode)
+  {
+    final int position = codeLength;
+    op(opcode);
+    u2(0);
+    return position;
+  }
+  
+  
+  /**
+   * Point a branch written by branch() at the current position.
+   * 
+   * @param branchPosition the position returned by branch()
+   */
+  void bindBranch(final int branchPosition)
+  {
+    final int offset = codeLength - branchPosition;
+    code[branchPosition + 1] = (byte) (offset >> 8);
+    code[branchPosition + 2] = (byte) offset;
+  }
+  
+  
+  /**
+   * Write a tableswitch instruction for the values 0 to count - 1,
+   * whose targets are not yet known.
+   * 
+   * @param count the number of values (at least one)
+   * @return the position of the instruction, to pass to bindSwitch()
+   */
+  int tableSwitch(final int count)
+  {
+    final int position = codeLength;
+    op(TABLESWITCH);
+    
+    // Pad to a four-byte boundary
+    while ((codeLength % 4) != 0)
+    {
+      op(0);
+    }
+    
+    // The default offset, the low and high values, and the offsets
+    writeInt(0);
+    writeInt(0);
+    writeInt(count - 1);
+    for (int i = 0; i < count; ++i)
+    {
+      writeInt(0);
+    }
+    
+    return position;
+  }
+  
+  
+  /**
+   * Point one target of a tableswitch instruction at the current
+   * position.
+   * 
+   * @param switchPosition the position returned by tableSwitch()
+   * @param value the value whose target to set, or -1 for the default
+   */
+  void bindSwitch(final int switchPosition, final int value)
+  {
+    // Find the start of the (aligned) table
+    final int table = (switchPosition + 4) & ~3;
+    final int slot = (value < 0) ? table : (table + 12 + (value * 4));
+    
+    final int offset = codeLength - switchPosition;
+    code[slot] = (byte) (offset >> 24);
+    code[slot + 1] = (byte) (offset >> 16);
+    code[slot + 2] = (byte) (offset >> 8);
+    code[slot + 3] = (byte) offset;
+  }
+  
+  
+  /**
+   * Write a four-byte value to the method body.
+   * 
+   * @param value the value to write
+   */
+  private void writeInt(final int value)
+  {
+    u2(value >> 16);
+    u2(value);
+  }
+  
+  
+  /**
+   * Returns the length of the method body written so far.
+   * 
+   * @return the current code length
+   */
+  int getCodeLength()
+  {
+    return codeLength;
+  }
+  
+  
+  /**
+   * Finish the method being written and start a new one.
+   * 
+   * @param name the method name
+   * @param desc the method descriptor
+   * @param maxStack the maximum depth of the operand stack
+   * @param maxLocals the number of local variable slots
+   * @throws IOException if the method is too large
+   */
+  void endMethod(final String name, final String desc,
+                 final int maxStack, final int maxLocals)
+    throws IOException
+  {
+    if (codeLength > MAX_CODE_LENGTH)
+    {
+      throw (new IOException("The method is too large"));
+    }
+    
+    methods.writeShort(ACC_PUBLIC);
+    methods.writeShort(utf8(name));
+    methods.writeShort(utf8(desc));
+    
+    // One attribute, the code
+    methods.writeShort(1);
+    methods.writeShort(utf8("Code"));
+    methods.writeInt(12 + codeLength);
+    methods.writeShort(maxStack);
+    methods.writeShort(maxLocals);
+    methods.writeInt(codeLength);
+    methods.write(code, 0, codeLength);
+    
+    // No exception table and no code attributes
+    methods.writeShort(0);
+    methods.writeShort(0);
+    
+    ++methodCount;
+    codeLength = 0;
+  }
+  
+  
+  /**
+   * Return the complete class file for a public final class.
+   * 
+   * @param className the internal name of the class
+   * @param superName the internal name of the superclass
+   * @return the bytes of the class file
+   * @throws IOException if the class file cannot be written
+   */
+  byte[] toByteArray(final String className, final String superName)
+    throws IOException
+  {
+    final int thisClass = classRef(className);
+    final int superClass = classRef(superName);
+    
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                 poolBytes.size() + methodBytes.size() + 32);
+    DataOutputStream out = new DataOutputStream(baos);
+    
+    // Magic number and version 49.0
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    out.writeShort(49);
+    
+    // Constant pool
+    out.writeShort(poolCount);
+    poolBytes.writeTo(out);
+    
+    // Access flags, class, superclass, no interfaces and no fields
+    out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(0);
+    out.writeShort(0);
+    
+    // Methods
+    out.writeShort(methodCount);
+    methodBytes.writeTo(out);
+    
+    // No class attributes
+    out.writeShort(0);
+    out.flush();
+    
+    return baos.toByteArray();
+  }
+}
@@ -0,0 +1,862 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A pattern that has been compiled into a list of instructions.
+ * The pattern lines are classified (comments, conditionals and
+ * text) once, so the same compiled pattern can be applied to
+ * every row of input without interpreting the pattern again.
+ * If-blocks, which may be nested, are compiled into tests and
+ * jumps, so a branch that is not taken is skipped in one step.
+ * Switch blocks are compiled into a hash table of case values.
+ * The instructions do not change once compiled, but function calls
+ * reuse buffers for their arguments, so a compiled pattern must
+ * only be applied by one thread at a time.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CompiledPattern
+{
+  /**
+   * The string that starts a tag.
+   */
+  private final String sPrefix;
+  
+  /**
+   * The string that ends a tag.
+   */
+  private final String sSuffix;
+  
+  /**
+   * The functions that can be called from the pattern.
+   */
+  private final FunctionRegistry registry;
+  
+  /**
+   * The highest field index tracked by getReferencedFields().  A
+   * reference to a higher field sets this bit instead, so a typo
+   * such as $99999999 does not allocate a huge set.
+   */
+  private static final int MAX_TRACKED_FIELD = 4096;
+  
+  /**
+   * The list of instructions.
+   */
+  private final Instruction[] program;
+  
+  
+  /**
+   * Constructor taking the pattern lines and the code symbols.
+   * 
+   * @param pattern the list of pattern lines
+   * @param startTag the code symbol start tag (prefix)
+   * @param endTag the code symbol end tag (suffix)
+   */
+  public CompiledPattern(final List<String> pattern,
+                         final String startTag,
+                         final String endTag)
+  {
+    this(pattern, startTag, endTag, FunctionRegistry.getDefault());
+  }
+  
+  
+  /**
+   * Constructor taking the pattern lines, the code symbols and
+   * the functions that can be called from the pattern.
+   * 
+   * @param pattern the list of pattern lines
+   * @param startTag the code symbol start tag (prefix)
+   * @param endTag the code symbol end tag (suffix)
+   * @param functions the registry of functions
+   */
+  public CompiledPattern(final List<String> pattern,
+                         final String startTag,
+                         final String endTag,
+                         final FunctionRegistry functions)
+  {
+    super();
+    
+    // Save the code symbols and functions
+    sPrefix = startTag;
+    sSuffix = endTag;
+    registry = functions;
+    
+    // Compile the pattern
+    program = compile(pattern);
+  }
+  
+  
+  /**
+   * Convert the list of pattern lines into an array of instructions.
+   * 
+   * @param pattern the list of pattern lines
+   * @return the array of instructions
+   */
+  private Instruction[] compile(final List<String> pattern)
+  {
+    // Check the input
+    if (pattern == null)
+    {
+      return new Instruction[0];
+    }
+    
+    // This will hold the instructions
+    List<Instruction> list = new ArrayList<Instruction>(pattern.size());
+    
+    // The stack of if-blocks that have not been closed yet
+    List<OpenBlock> blocks = new ArrayList<OpenBlock>(4);
+    
+    // Iterate over the rows
+    for (String patternRow : pattern)
+    {
+      // Check the current row for a match for an if-type statement
+      String trimmedRow = patternRow.trim();
+      
+      // Check for an empty string or with only whitespace
+      if (trimmedRow.length() < 1)
+      {
+        // The row is empty or only whitespace, so it is output as-is
+        list.add(new Instruction(Instruction.OP_RAW, patternRow));
+      }
+      else if (trimmedRow.startsWith("$//"))
+      {
+        // The line starts with a comment, so skip it
+        continue;
+      }
+      else if (trimmedRow.startsWith("$if "))
+      {
+        // We're entering a new (possibly nested) if block
+        OpenBlock block = new OpenBlock();
+        blocks.add(block);
+        
+        // Test the condition, jumping to the next branch if false
+        block.pendingTest = list.size();
+        list.add(newTest(trimmedRow.substring(4)));
+      }
+      else if (trimmedRow.startsWith("$else if ") || (trimmedRow.startsWith("$elseif ")))
+      {
+        // Calculate how many characters to skip to get to the condition to test
+        final int nSkipValue = 8 + ((trimmedRow.charAt(5) == ' ') ? 1 : 0);
+        
+        // An else-if with no open if-block starts a new block
+        OpenBlock block = getIfBlock(blocks);
+        if (block == null)
+        {
+          block = new OpenBlock();
+          blocks.add(block);
+        }
+        else
+        {
+          // End the previous branch, and point the previous test here
+          endBranch(block, list);
+        }
+        
+        // Test the condition, jumping to the next branch if false
+        block.pendingTest = list.size();
+        list.add(newTest(trimmedRow.substring(nSkipValue)));
+      }
+      else if (trimmedRow.equals("$else"))
+      {
+        // An else with no open if-block has no effect
+        OpenBlock block = getIfBlock(blocks);
+        if (block != null)
+        {
+          // End the previous branch, and point the previous test here
+          endBranch(block, list);
+        }
+      }
+      else if (trimmedRow.startsWith("$switch "))
+      {
+        // We're entering a new switch block
+        OpenBlock block = new OpenBlock();
+        block.switchTable = new SwitchTable(
+                 getSwitchField(trimmedRow.substring(8).trim()));
+        blocks.add(block);
+        
+        // Jump to the matching case
+        list.add(new Instruction(Instruction.OP_SWITCH, trimmedRow,
+                                 block.switchTable));
+      }
+      else if (trimmedRow.startsWith("$case ") || trimmedRow.equals("$default"))
+      {
+        // A case with no open switch block has no effect
+        OpenBlock block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if ((block != null) && (block.switchTable != null))
+        {
+          // Jump from the end of the previous case to the end of the block
+          block.endJumps.add(Integer.valueOf(list.size()));
+          list.add(new Instruction(Instruction.OP_JUMP, null));
+          
+          // The case starts here
+          if (trimmedRow.equals("$default"))
+          {
+            block.switchTable.setDefaultTarget(list.size());
+          }
+          else
+          {
+            block.switchTable.addCase(
+                 getCaseValues(trimmedRow.substring(6)), list.size());
+          }
+        }
+      }
+      else if (trimmedRow.startsWith("$end"))
+      {
+        // An end with no open block has no effect
+        if (!blocks.isEmpty())
+        {
+          // Point the last test and the end of each branch here
+          closeBlock(blocks.remove(blocks.size() - 1), list);
+        }
+      }
+      else
+      {
+        // This is a line of text
+        list.add(new Instruction(Instruction.OP_TEXT, patternRow,
+                                 tokenize(patternRow)));
+      }
+    }
+    
+    // Close any blocks that are missing their $endif or $endswitch
+    while (!blocks.isEmpty())
+    {
+      closeBlock(blocks.remove(blocks.size() - 1), list);
+    }
+    
+    // Return the list as an array
+    return list.toArray(new Instruction[list.size()]);
+  }
+  
+  
+  /**
+   * Return the innermost open block, if it is an if-block.
+   * 
+   * @param blocks the stack of open blocks
+   * @return the innermost block, or null if it is not an if-block
+   */
+  private static OpenBlock getIfBlock(final List<OpenBlock> blocks)
+  {
+    if (blocks.isEmpty())
+    {
+      return null;
+    }
+    
+    final OpenBlock block = blocks.get(blocks.size() - 1);
+    return ((block.switchTable == null) ? block : null);
+  }
+  
+  
+  /**
+   * Return the zero-based index of the field referenced by a
+   * $switch statement.
+   * 
+   * @param text the text after $switch
+   * @return the field index, or -1 if text is not a field reference
+   */
+  private int getSwitchField(final String text)
+  {
+    final int tagEnd = findFieldTagEnd(text, 0);
+    return ((tagEnd == text.length()) ? getFieldIndex(text, 0) : -1);
+  }
+  
+  
+  /**
+   * Return the list of values on a $case line.  The values are
+   * separated by commas, and may be in double quotes.
+   * 
+   * @param text the text after $case
+   * @return the list of values
+   */
+  private static List<String> getCaseValues(final String text)
+  {
+    List<String> values = new ArrayList<String>(4);
+    final int nLen = text.length();
+    int index = 0;
+    while (index < nLen)
+    {
+      // Skip spaces and commas between values
+      final char ch = text.charAt(index);
+      if ((ch == ' ') || (ch == ','))
+      {
+        ++index;
+      }
+      else if (ch == '"')
+      {
+        // Read up to the closing quote
+        int nCloseIndex = text.indexOf('"', index + 1);
+        if (nCloseIndex < 0)
+        {
+          nCloseIndex = nLen;
+        }
+        
+        values.add(text.substring(index + 1, nCloseIndex));
+        index = nCloseIndex + 1;
+      }
+      else
+      {
+        // Read up to the next comma
+        int nCommaIndex = text.indexOf(',', index);
+        if (nCommaIndex < 0)
+        {
+          nCommaIndex = nLen;
+        }
+        
+        values.add(text.substring(index, nCommaIndex).trim());
+        index = nCommaIndex + 1;
+      }
+    }
+    
+    return values;
+  }
+  
+  
+  /**
+   * Create an instruction to test an $if or $elseif condition.
+   * 
+   * @param text the text of the condition
+   * @return the new instruction
+   */
+  private Instruction newTest(final String text)
+  {
+    final String condition = text.trim();
+    return new Instruction(Instruction.OP_IF, condition,
+                           Condition.parse(condition, sPrefix, sSuffix));
+  }
+  
+  
+  /**
+   * End the current branch of an if-block, when an $elseif or
+   * $else is reached.  The branch jumps to the end of the block,
+   * and the test for the branch (if any) jumps to the instruction
+   * after that.
+   * 
+   * @param block the block
+   * @param list the list of instructions
+   */
+  private static void endBranch(final OpenBlock block,
+                                final List<Instruction> list)
+  {
+    // Jump from the end of the branch to the end of the block
+    block.endJumps.add(Integer.valueOf(list.size()));
+    list.add(new Instruction(Instruction.OP_JUMP, null));
+    
+    // If the branch's condition is false, go to the next branch
+    if (block.pendingTest >= 0)
+    {
+      list.get(block.pendingTest).setTarget(list.size());
+      block.pendingTest = -1;
+    }
+  }
+  
+  
+  /**
+   * Close an if-block or switch block, pointing the last test (or
+   * the switch's default case, if it has none) and all jumps from
+   * the ends of branches at the next instruction.
+   * 
+   * @param block the block
+   * @param list the list of instructions
+   */
+  private static void closeBlock(final OpenBlock block,
+                                 final List<Instruction> list)
+  {
+    final int end = list.size();
+    if (block.pendingTest >= 0)
+    {
+      list.get(block.pendingTest).setTarget(end);
+    }
+    
+    if ((block.switchTable != null) && (!block.switchTable.hasDefaultTarget()))
+    {
+      block.switchTable.setDefaultTarget(end);
+    }
+    
+    for (Integer jump : block.endJumps)
+    {
+      list.get(jump.intValue()).setTarget(end);
+    }
+  }
+  
+  
+  /**
+   * Split a line of the pattern into literal text, field
+   * references, $Row references and function calls, so that
+   * applying the line to a row is a single pass over the segments.
+   * 
+   * @param line the pattern line
+   * @return the array of segments
+   */
+  private Segment[] tokenize(final String line)
+  {
+    // This will hold the segments
+    List<Segment> list = new ArrayList<Segment>(10);
+    
+    // Save the length of the line
+    final int nLen = line.length();
+    
+    // The start of the current run of literal text
+    int literalStart = 0;
+    
+    // Iterate over the characters in the line
+    int index = 0;
+    while (index < nLen)
+    {
+      // Check for a function call, a field reference or the row variable
+      Segment segment = parseCall(line, index);
+      if (segment == null)
+      {
+        segment = parseTag(line, index);
+      }
+      
+      // If we didn't find a tag, move to the next character
+      if (segment == null)
+      {
+        ++index;
+        continue;
+      }
+      
+      // Save any literal text before the tag, and then the tag
+      if (literalStart < index)
+      {
+        list.add(Segment.literal(line.substring(literalStart, index)));
+      }
+      list.add(segment);
+      
+      // Continue after the tag
+      index += segment.getText().length();
+      literalStart = index;
+    }
+    
+    // Save any trailing literal text
+    if (literalStart < nLen)
+    {
+      list.add(Segment.literal(line.substring(literalStart)));
+    }
+    
+    // Return the list as an array
+    return list.toArray(new Segment[list.size()]);
+  }
+  
+  
+  /**
+   * Parse a field reference or a $Row reference starting at
+   * the specified index.
+   * 
+   * @param line the pattern line
+   * @param index the index of the start of the prefix
+   * @return the segment, or null if there is no reference at index
+   */
+  private Segment parseTag(final String line, final int index)
+  {
+    // Check for a field reference
+    final int tagEnd = findFieldTagEnd(line, index);
+    if (tagEnd > 0)
+    {
+      return Segment.field(line.substring(index, tagEnd),
+                           getFieldIndex(line, index));
+    }
+    
+    // Check for the row variable
+    final String rowTag = sPrefix + "Row" + sSuffix;
+    if (line.startsWith(rowTag, index))
+    {
+      return Segment.row(rowTag);
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * Parse a function call, such as $substr($1, 0, 3), starting at
+   * the specified index.  The function must be in the registry and
+   * take the number of arguments in the call.  Each argument is a
+   * field reference, the row variable, a quoted string, a number
+   * or another function call.
+   * 
+   * @param line the pattern line
+   * @param index the index of the $ before the function name
+   * @return the segment, or null if there is no valid call at index
+   */
+  private Segment parseCall(final String line, final int index)
+  {
+    // Check for the function name and the opening parenthesis
+    final int nLen = line.length();
+    if (line.charAt(index) != '$')
+    {
+      return null;
+    }
+    
+    int pos = index + 1;
+    while ((pos < nLen) && (Character.isLetterOrDigit(line.charAt(pos))))
+    {
+      ++pos;
+    }
+    
+    if ((pos == index + 1) || (pos >= nLen) || (line.charAt(pos) != '('))
+    {
+      return null;
+    }
+    
+    // Look up the function
+    final TextFunction function = registry.get(line.substring(index + 1, pos));
+    if (function == null)
+    {
+      return null;
+    }
+    
+    // Parse the arguments, up to the closing parenthesis
+    List<Segment> args = new ArrayList<Segment>(4);
+    pos = skipSpaces(line, pos + 1);
+    if ((pos < nLen) && (line.charAt(pos) == ')'))
+    {
+      ++pos;
+    }
+    else
+    {
+      while (true)
+      {
+        // Parse the next argument
+        final Segment arg = parseArgument(line, pos);
+        if (arg == null)
+        {
+          return null;
+        }
+        args.add(arg);
+        
+        // Check for a comma or the closing parenthesis
+        pos = skipSpaces(line, pos + arg.getText().length());
+        if (pos >= nLen)
+        {
+          return null;
+        }
+        else if (line.charAt(pos) == ')')
+        {
+          ++pos;
+          break;
+        }
+        else if (line.charAt(pos) != ',')
+        {
+          return null;
+        }
+        
+        pos = skipSpaces(line, pos + 1);
+      }
+    }
+    
+    // Check the number of arguments
+    if ((args.size() < function.getMinArguments()) ||
+        (args.size() > function.getMaxArguments()))
+    {
+      return null;
+    }
+    
+    return Segment.call(line.substring(index, pos), function,
+                        args.toArray(new Segment[args.size()]));
+  }
+  
+  
+  /**
+   * Parse an argument of a function call.
+   * 
+   * @param line the pattern line
+   * @param index the index of the start of the argument
+   * @return the segment, or null if there is no valid argument at index
+   */
+  private Segment parseArgument(final String line, final int index)
+  {
+    // Check for the end of the line
+    final int nLen = line.length();
+    if (index >= nLen)
+    {
+      return null;
+    }
+    
+    // Check for a quoted string
+    final char ch = line.charAt(index);
+    if (ch == '"')
+    {
+      final int nCloseIndex = line.indexOf('"', index + 1);
+      if (nCloseIndex < 0)
+      {
+        return null;
+      }
+      
+      return Segment.literal(line.substring(index, nCloseIndex + 1),
+                             line.substring(index + 1, nCloseIndex));
+    }
+    
+    // Check for a number
+    if ((ch == '-') || (Character.isDigit(ch)))
+    {
+      int pos = index + 1;
+      while ((pos < nLen) && (Character.isDigit(line.charAt(pos))))
+      {
+        ++pos;
+      }
+      
+      return Segment.literal(line.substring(index, pos));
+    }
+    
+    // Check for a nested call, a field reference or the row variable
+    final Segment segment = parseCall(line, index);
+    return ((segment != null) ? segment : parseTag(line, index));
+  }
+  
+  
+  /**
+   * Return the index of the first character at or after index
+   * that is not a space.
+   * 
+   * @param line the pattern line
+   * @param index the index to start at
+   * @return the index of the next non-space character
+   */
+  private static int skipSpaces(final String line, final int index)
+  {
+    int pos = index;
+    while ((pos < line.length()) && (line.charAt(pos) == ' '))
+    {
+      ++pos;
+    }
+    
+    return pos;
+  }
+  
+  
+  /**
+   * Find the end of a field reference (e.g., $1) starting at
+   * the specified index.  The field number must not start with
+   * a zero.
+   * 
+   * @param line the pattern line
+   * @param tagIndex the index of the start of the prefix
+   * @return the index just past the field reference, or -1 if
+   *         there is no field reference at tagIndex
+   */
+  private int findFieldTagEnd(final String line, final int tagIndex)
+  {
+    // Check for the prefix
+    if (!line.startsWith(sPrefix, tagIndex))
+    {
+      return -1;
+    }
+    
+    // Check for the digits
+    final int nLen = line.length();
+    final int digitStart = tagIndex + sPrefix.length();
+    int index = digitStart;
+    while ((index < nLen) && (Character.isDigit(line.charAt(index))))
+    {
+      ++index;
+    }
+    
+    // Check for no digits, or a leading zero
+    if ((index == digitStart) || (line.charAt(digitStart) == '0'))
+    {
+      return -1;
+    }
+    
+    // Check for the suffix
+    if (!line.startsWith(sSuffix, index))
+    {
+      return -1;
+    }
+    
+    return (index + sSuffix.length());
+  }
+  
+  
+  /**
+   * Return the zero-based index of the field referenced by the
+   * field reference starting at tagIndex.  The reference is
+   * assumed to be valid.
+   * 
+   * @param line the pattern line
+   * @param tagIndex the index of the start of the prefix
+   * @return the zero-based field index
+   */
+  private int getFieldIndex(final String line, final int tagIndex)
+  {
+    // Convert the digits after the prefix into a number
+    int value = 0;
+    final int nLen = line.length();
+    for (int index = tagIndex + sPrefix.length();
+         (index < nLen) && (Character.isDigit(line.charAt(index))); ++index)
+    {
+      // Treat very large field numbers as fields that never exist
+      value = Math.min((value * 10) + Character.digit(line.charAt(index), 10),
+                       Integer.MAX_VALUE / 10);
+    }
+    
+    return (value - 1);
+  }
+  
+  
+  /**
+   * Returns the code symbol prefix.
+   * 
+   * @return the code symbol prefix
+   */
+  public String getPrefix()
+  {
+    return sPrefix;
+  }
+  
+  
+  /**
+   * Returns the code symbol suffix.
+   * 
+   * @return the code symbol suffix
+   */
+  public String getSuffix()
+  {
+    return sSuffix;
+  }
+  
+  
+  /**
+   * Returns whether the pattern has no instructions.
+   * 
+   * @return whether the pattern is empty
+   */
+  public boolean isEmpty()
+  {
+    return (program.length < 1);
+  }
+  
+  
+  /**
+   * Returns the set of zero-based indexes of the fields that the
+   * pattern refers to, in text, function calls, conditions and
+   * switch statements.  A parser only needs to read these fields,
+   * and can stop after the highest one.
+   * 
+   * @return the set of field indexes, or null if the pattern refers
+   *         to a field too high to track
+   */
+  public BitSet getReferencedFields()
+  {
+    BitSet fields = new BitSet();
+    for (Instruction instruction : program)
+    {
+      switch (instruction.getOpcode())
+      {
+        case Instruction.OP_TEXT:
+        {
+          for (Segment segment : instruction.getSegments())
+          {
+            segment.addReferencedFields(fields);
+          }
+          break;
+        }
+        
+        case Instruction.OP_IF:
+        {
+          instruction.getCondition().addReferencedFields(fields);
+          break;
+        }
+        
+        case Instruction.OP_SWITCH:
+        {
+          instruction.getSwitchTable().addReferencedFields(fields);
+          break;
+        }
+        
+        default:
+          break;
+      }
+    }
+    
+    return (fields.get(MAX_TRACKED_FIELD) ? null : fields);
+  }
+  
+  
+  /**
+   * Add a field index to a set of referenced fields.
+   * 
+   * @param fields the set of zero-based field indexes
+   * @param index the zero-based index of the field
+   */
+  static void addField(final BitSet fields, final int index)
+  {
+    fields.set(Math.min(index, MAX_TRACKED_FIELD));
+  }
+  
+  
+  /**
+   * Returns the array of instructions.
+   * 
+   * @return the instructions
+   */
+  Instruction[] getProgram()
+  {
+    return program;
+  }
+  
+  
+  /**
+   * An if-block or switch block that is being compiled.
+   */
+  private static final class OpenBlock
+  {
+    /**
+     * The lookup table, if this is a switch block.
+     */
+    private SwitchTable switchTable = null;
+    
+
+    /**
+     * The index of the test for the current branch, whose target
+     * is not known yet, or -1 if there is none (after an $else).
+     */
+    private int pendingTest = -1;
+    
+    /**
+     * The indexes of the jumps from the ends of branches to the
+     * end of the block.
+     */
+    private final List<Integer> endJumps = new ArrayList<Integer>(4);
+    
+    
+    /**
+     * Default constructor.
+     */
+    OpenBlock()
+    {
+      super();
+    }
+  }
+}
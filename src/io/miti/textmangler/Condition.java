@@ -0,0 +1,455 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A compiled $if or $elseif condition.  The condition text is
+ * parsed once, when the pattern is compiled, into an operator
+ * and two operands.  An operand is either a literal string or
+ * the index of a field in the row.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class Condition
+{
+  /**
+   * A condition that can never be true (e.g., it could not be parsed).
+   */
+  private static final int NEVER = 0;
+  
+  /**
+   * A comparison of the $Row variable to a number.
+   */
+  private static final int ROW = 1;
+  
+  /**
+   * A comparison of two strings.
+   */
+  private static final int STRINGS = 2;
+  
+  /**
+   * The condition that is never true.
+   */
+  private static final Condition FALSE = new Condition(NEVER, null, -1, null, -1, null, 0);
+  
+  /**
+   * The type of condition.
+   */
+  private final int type;
+  
+  /**
+   * The comparison operator.
+   */
+  private final Operator operator;
+  
+  /**
+   * The zero-based index of the first field, or -1 for a literal.
+   */
+  private final int field1;
+  
+  /**
+   * The first literal, if field1 is -1.
+   */
+  private final String literal1;
+  
+  /**
+   * The zero-based index of the second field, or -1 for a literal.
+   */
+  private final int field2;
+  
+  /**
+   * The second literal, if field2 is -1.
+   */
+  private final String literal2;
+  
+  /**
+   * The number to compare $Row to.
+   */
+  private final long rowValue;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param nType the type of condition
+   * @param op the comparison operator
+   * @param nField1 the index of the first field, or -1
+   * @param sLiteral1 the first literal
+   * @param nField2 the index of the second field, or -1
+   * @param sLiteral2 the second literal
+   * @param nRowValue the number to compare $Row to
+   */
+  private Condition(final int nType, final Operator op,
+                    final int nField1, final String sLiteral1,
+                    final int nField2, final String sLiteral2,
+                    final long nRowValue)
+  {
+    super();
+    type = nType;
+    operator = op;
+    field1 = nField1;
+    literal1 = sLiteral1;
+    field2 = nField2;
+    literal2 = sLiteral2;
+    rowValue = nRowValue;
+  }
+  
+  
+  /**
+   * Evaluate the condition against a row.
+   * 
+   * @param strInput the list of fields in the row
+   * @param currentRow the current row number
+   * @return whether the condition is true
+   */
+  boolean evaluate(final List<String> strInput, final long currentRow)
+  {
+    switch (type)
+    {
+      case ROW:
+      {
+        // Compare the row number
+        return operator.matches((currentRow < rowValue) ? -1
+                                : ((currentRow == rowValue) ? 0 : 1));
+      }
+      
+      case STRINGS:
+      {
+        // Look up the fields; a missing field makes the condition false
+        final int nSize = strInput.size();
+        if ((field1 >= nSize) || (field2 >= nSize))
+        {
+          return false;
+        }
+        
+        final String sField1 = (field1 < 0) ? literal1 : strInput.get(field1);
+        final String sField2 = (field2 < 0) ? literal2 : strInput.get(field2);
+        
+        // Equality does not need an ordering
+        if (operator == Operator.EQ)
+        {
+          return sField1.equals(sField2);
+        }
+        else if (operator == Operator.NE)
+        {
+          return !sField1.equals(sField2);
+        }
+        
+        return operator.matches(sField1.compareTo(sField2));
+      }
+      
+      default:
+        return false;
+    }
+  }
+  
+  
+  /**
+   * Parse the text of an if-control statement.  The statement is
+   * either "$Row [op] [#]" or "[string] [op] [string]", where each
+   * string is a quoted literal or a field reference.
+   * 
+   * @param line the line after the if-statement
+   * @param sPrefix the code symbol prefix
+   * @param sSuffix the code symbol suffix
+   * @return the compiled condition
+   */
+  static Condition parse(final String line, final String sPrefix,
+                         final String sSuffix)
+  {
+    // Save the length of the line
+    final int nLineLen = line.length();
+    if (nLineLen < 2)
+    {
+      return FALSE;
+    }
+    
+    // Need to evaluate line.  Check if it starts with $Row
+    if (line.startsWith(sPrefix + "Row"))
+    {
+      // Jump past the Row variable
+      int index = 3 + sPrefix.length() + sSuffix.length();
+      
+      // Find the first non-space character
+      index = skipSpaces(line, index);
+      if (index >= nLineLen)
+      {
+        return FALSE;
+      }
+      
+      // Get the operation character(s) - everything before a space or number
+      final int opStart = index;
+      while ((index < nLineLen) && (line.charAt(index) != ' ') &&
+             (!Character.isDigit(line.charAt(index))))
+      {
+        ++index;
+      }
+      final Operator op = Operator.fromString(line.substring(opStart, index));
+      
+      // Now get the number to compare the row to
+      index = skipSpaces(line, index);
+      final int digitStart = index;
+      while ((index < nLineLen) && (Character.isDigit(line.charAt(index))))
+      {
+        ++index;
+      }
+      
+      // Check the operator
+      if (op == null)
+      {
+        return FALSE;
+      }
+      
+      return new Condition(ROW, op, -1, null, -1, null,
+                           getRowNumber(line.substring(digitStart, index)));
+    }
+    
+    // Get the first operand, either a field reference or a quoted string
+    int index = 0;
+    int nField1 = -1;
+    String sLiteral1 = null;
+    if (line.startsWith(sPrefix))
+    {
+      // Find the end of the field reference
+      final int nEndIndex = findFieldEnd(line, sPrefix.length(), sSuffix);
+      if (nEndIndex < 0)
+      {
+        return FALSE;
+      }
+      
+      // Grab the field number
+      nField1 = getFieldNumber(line.substring(sPrefix.length(), nEndIndex)) - 1;
+      if (nField1 < 0)
+      {
+        return FALSE;
+      }
+      
+      // Update index to point after the first field's suffix
+      // (before the comparison operator)
+      index = nEndIndex + sSuffix.length();
+    }
+    else if (line.startsWith("\""))
+    {
+      // Get the string inside the quotes
+      final int nCloserIndex = line.indexOf('"', 1);
+      if (nCloserIndex < 0)
+      {
+        return FALSE;
+      }
+      
+      // Save the first field and point after the closing quote
+      sLiteral1 = line.substring(1, nCloserIndex);
+      index = nCloserIndex + 1;
+    }
+    else
+    {
+      return FALSE;
+    }
+    
+    // Find the index of the string after the operator
+    final int nQuoteIndex = line.indexOf('"', index);
+    final int nPrefixStartIndex = line.indexOf(sPrefix, index);
+    
+    // Get the second operand, whichever is found first
+    int nOperatorEndIndex = 0;
+    int nField2 = -1;
+    String sLiteral2 = null;
+    if ((nQuoteIndex < 0) && (nPrefixStartIndex < 0))
+    {
+      // Neither was found
+      return FALSE;
+    }
+    else if ((nQuoteIndex < 0) ||
+             ((nPrefixStartIndex >= 0) && (nPrefixStartIndex < nQuoteIndex)))
+    {
+      // Save the index of the prefix start
+      nOperatorEndIndex = nPrefixStartIndex;
+      
+      // Find the end of the field reference
+      final int nField2StartIndex = nPrefixStartIndex + sPrefix.length();
+      final int nEndIndex = findFieldEnd(line, nField2StartIndex, sSuffix);
+      if (nEndIndex < 0)
+      {
+        return FALSE;
+      }
+      
+      // Get the field number
+      nField2 = getFieldNumber(line.substring(nField2StartIndex, nEndIndex)) - 1;
+      if (nField2 < 0)
+      {
+        return FALSE;
+      }
+    }
+    else
+    {
+      // Save the index of the quote character
+      nOperatorEndIndex = nQuoteIndex;
+      
+      // Find the closing quote
+      final int nCloseQuoteIndex = line.indexOf('"', nQuoteIndex + 1);
+      if (nCloseQuoteIndex < 0)
+      {
+        return FALSE;
+      }
+      
+      // Save the string between quotes
+      sLiteral2 = line.substring(nQuoteIndex + 1, nCloseQuoteIndex);
+    }
+    
+    // Save the operator
+    final Operator op = Operator.fromString(
+                line.substring(index, nOperatorEndIndex).trim());
+    if (op == null)
+    {
+      return FALSE;
+    }
+    
+    return new Condition(STRINGS, op, nField1, sLiteral1, nField2, sLiteral2, 0);
+  }
+  
+  
+  /**
+   * Find the end of the field number in a field reference.
+   * 
+   * @param line the condition text
+   * @param index the index of the start of the field number
+   * @param sSuffix the code symbol suffix
+   * @return the index just past the field number, or -1 if
+   *         the suffix is not found
+   */
+  private static int findFieldEnd(final String line, final int index,
+                                  final String sSuffix)
+  {
+    // If there's a suffix, look for that
+    if (sSuffix.length() > 0)
+    {
+      return line.indexOf(sSuffix, index);
+    }
+    
+    // No suffix, so continue until we hit the end of the line or a non-digit
+    final int nLineLen = line.length();
+    int nEndIndex = index;
+    while ((nEndIndex < nLineLen) && (Character.isDigit(line.charAt(nEndIndex))))
+    {
+      ++nEndIndex;
+    }
+    
+    return nEndIndex;
+  }
+  
+  
+  /**
+   * Return the index of the first non-space character at or
+   * after index.
+   * 
+   * @param line the condition text
+   * @param index the index to start at
+   * @return the index of the next non-space character
+   */
+  private static int skipSpaces(final String line, final int index)
+  {
+    int nIndex = index;
+    while ((nIndex < line.length()) && (line.charAt(nIndex) == ' '))
+    {
+      ++nIndex;
+    }
+    
+    return nIndex;
+  }
+  
+  
+  /**
+   * Converts the field reference into an integer.
+   * 
+   * @param tag the string containing a number
+   * @return tag converted into an integer, or zero if it is not valid
+   */
+  private static int getFieldNumber(final String tag)
+  {
+    // Declare the value we're going to return
+    int value = 0;
+    
+    // Convert the string to an integer
+    try
+    {
+      value = Integer.parseInt(tag);
+    }
+    catch (NumberFormatException nfe)
+    {
+      // An exception occurred, so set the value to an illegal field number
+      value = 0;
+    }
+    
+    return value;
+  }
+  
+  
+  /**
+   * Convert the number in a $Row comparison to a long.
+   * 
+   * @param number the number to convert
+   * @return the number, or 0 if it is invalid
+   */
+  private static long getRowNumber(final String number)
+  {
+    try
+    {
+      return Long.parseLong(number);
+    }
+    catch (NumberFormatException nfe)
+    {
+      // An exception occurred, so compare against zero
+      return 0L;
+    }
+  }
+  
+  
+  /**
+   * Add the indexes of the fields the condition refers to.
+   * 
+   * @param fields the set of zero-based field indexes
+   */
+  void addReferencedFields(final BitSet fields)
+  {
+    if (field1 >= 0)
+    {
+      CompiledPattern.addField(fields, field1);
+    }
+    
+    if (field2 >= 0)
+    {
+      CompiledPattern.addField(fields, field2);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+/**
+ * A set of delimiter characters, stored as a bit table indexed
+ * by character, so checking whether a character is a delimiter
+ * is a single array lookup instead of a search of the delimiter
+ * string.  The table only extends to the highest delimiter, so
+ * it stays small for the usual ASCII delimiters.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class DelimiterSet
+{
+  /**
+   * The bit table, with one bit per character.
+   */
+  private final long[] bits;
+  
+  /**
+   * The distinct delimiter characters.
+   */
+  private final char[] chars;
+  
+  
+  /**
+   * Constructor taking the delimiters.
+   * 
+   * @param delimiters the delimiter characters (may be null)
+   */
+  DelimiterSet(final String delimiters)
+  {
+    super();
+    
+    // Find the highest delimiter, to size the table
+    final int nLen = (delimiters == null) ? 0 : delimiters.length();
+    int maxChar = -1;
+    for (int i = 0; i < nLen; ++i)
+    {
+      maxChar = Math.max(maxChar, delimiters.charAt(i));
+    }
+    
+    // Set the bit for each delimiter, and save each one once
+    bits = new long[(maxChar >> 6) + 1];
+    StringBuilder distinct = new StringBuilder(nLen);
+    for (int i = 0; i < nLen; ++i)
+    {
+      final char ch = delimiters.charAt(i);
+      if (!contains(ch))
+      {
+        bits[ch >>> 6] |= (1L << ch);
+        distinct.append(ch);
+      }
+    }
+    
+    chars = distinct.toString().toCharArray();
+  }
+  
+  
+  /**
+   * Returns the distinct delimiter characters.
+   * 
+   * @return the delimiters
+   */
+  char[] getChars()
+  {
+    return chars;
+  }
+  
+  
+  /**
+   * Returns whether the character is a delimiter.
+   * 
+   * @param ch the character to check
+   * @return whether ch is a delimiter
+   */
+  boolean contains(final char ch)
+  {
+    final int word = ch >>> 6;
+    return ((word < bits.length) && ((bits[word] & (1L << ch)) != 0L));
+  }
+}
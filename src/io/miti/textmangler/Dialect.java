@@ -0,0 +1,95 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+/**
+ * The rules for quoting and escaping fields in delimited text.
+ * Each dialect is parsed by its own loop in CSVReader, so a
+ * dialect without quotes never checks for them.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public enum Dialect
+{
+  /**
+   * The original rules: a quote starts a quoted field, and a quote
+   * inside it turns quoting off and on again.  Two quotes in a row
+   * inside a quoted field are one quote.
+   */
+  STANDARD("Standard"),
+  
+  /**
+   * RFC 4180: a field that starts with a quote ends at the next
+   * quote that is not doubled, and two quotes in a row inside it
+   * are one quote.  A quote in an unquoted field is just a quote.
+   */
+  RFC_4180("RFC 4180"),
+  
+  /**
+   * Quoted fields as in RFC 4180, but a backslash escapes the next
+   * character, inside or outside of quotes.  The escapes \n, \r,
+   * \t and \0 are a newline, carriage return, tab and null.
+   */
+  BACKSLASH("Backslash escapes"),
+  
+  /**
+   * No quoting or escaping at all, as in tab-separated values.
+   */
+  TSV("TSV (no quotes)");
+  
+  
+  /**
+   * The name shown to the user.
+   */
+  private final String name;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param displayName the name shown to the user
+   */
+  private Dialect(final String displayName)
+  {
+    name = displayName;
+  }
+  
+  
+  /**
+   * Returns the name shown to the user.
+   * 
+   * @return the name of the dialect
+   */
+  public String toString()
+  {
+    return name;
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * A read-only view of a text file that is too large for a text
+ * area.  The lines are shown in a list backed by a MappedLineModel,
+ * with a fixed cell size, so only the lines on the screen are read
+ * and decoded, however large the file is.  The lines are found in
+ * the background, and appear as they are found.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class FileView extends JScrollPane
+{
+  /**
+   * Default serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The list of lines.
+   */
+  private final JList<String> list;
+  
+  /**
+   * The lines of the file shown, or null if there is no file.
+   */
+  private transient MappedLineModel model = null;
+  
+  
+  /**
+   * Constructor taking the font for the lines.
+   * 
+   * @param font the font for the lines
+   */
+  public FileView(final Font font)
+  {
+    super();
+    list = new JList<String>(new DefaultListModel<String>());
+    list.setFont(font);
+    setViewportView(list);
+  }
+  
+  
+  /**
+   * Show a file.  The file is scanned for its lines in the
+   * background, so this returns before the lines are shown.
+   * 
+   * @param file the UTF-8 text file to show
+   * @throws IOException if the file cannot be read
+   */
+  public void setFile(final File file) throws IOException
+  {
+    // Show no more lines than fit in the height of the list,
+    // which is an int
+    final FontMetrics fm = list.getFontMetrics(list.getFont());
+    final int nCellHeight = Math.max(fm.getHeight(), 1);
+    MappedLineModel newModel =
+      new MappedLineModel(file, (Integer.MAX_VALUE / nCellHeight) - 1);
+    close();
+    model = newModel;
+    
+    // Give every line the same size, so the list does not measure
+    // every line in the file.  The width grows as longer lines
+    // are found.
+    list.setFixedCellHeight(nCellHeight);
+    updateCellWidth();
+    model.addListDataListener(new ListDataListener()
+    {
+      public void intervalAdded(final ListDataEvent evt)
+      {
+        updateCellWidth();
+      }
+      
+      public void intervalRemoved(final ListDataEvent evt)
+      {
+        // Lines are never removed
+      }
+      
+      public void contentsChanged(final ListDataEvent evt)
+      {
+        // Lines never change
+      }
+    });
+    
+    list.setModel(model);
+    list.ensureIndexIsVisible(0);
+    model.startIndex();
+  }
+  
+  
+  /**
+   * Make the lines wide enough for the longest line found.
+   */
+  private void updateCellWidth()
+  {
+    if (model == null)
+    {
+      return;
+    }
+    
+    final FontMetrics fm = list.getFontMetrics(list.getFont());
+    final int nWidth = fm.charWidth('m') * (model.getLongestLine() + 2);
+    if (nWidth != list.getFixedCellWidth())
+    {
+      list.setFixedCellWidth(nWidth);
+    }
+  }
+  
+  
+  /**
+   * Returns the lines of the file shown.
+   * 
+   * @return the lines of the file, or null if no file is shown
+   */
+  public MappedLineModel getModel()
+  {
+    return model;
+  }
+  
+  
+  /**
+   * Stop showing the file, and close it.
+   * 
+   * @throws IOException if the file cannot be closed
+   */
+  public void close() throws IOException
+  {
+    list.setModel(new DefaultListModel<String>());
+    if (model != null)
+    {
+      model.close();
+      model = null;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parse rows of fixed-width columns.  The layout of the columns is
+ * fixed, so each field is sliced from the row by its offsets, with
+ * no delimiters to scan for.  A field past the end of a short row
+ * is empty.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class FixedWidthParser extends RowParser
+{
+  /**
+   * The end offset of a field that runs to the end of the row.
+   */
+  private static final int END_OF_ROW = Integer.MAX_VALUE;
+  
+  /**
+   * The zero-based offset in the row of the start of each field.
+   */
+  private final int[] starts;
+  
+  /**
+   * The offset in the row of the end of each field (exclusive).
+   */
+  private final int[] ends;
+  
+  /**
+   * Whether to trim each field.
+   */
+  private boolean bTrimFields = false;
+  
+  
+  /**
+   * Constructor taking the offsets of the fields.
+   * 
+   * @param startOffsets the zero-based offset of the start of each field
+   * @param endOffsets the offset of the end of each field (exclusive)
+   * @param trimFields whether to trim each field
+   */
+  public FixedWidthParser(final int[] startOffsets, final int[] endOffsets,
+                          final boolean trimFields)
+  {
+    super();
+    starts = startOffsets.clone();
+    ends = endOffsets.clone();
+    bTrimFields = trimFields;
+  }
+  
+  
+  /**
+   * Returns a parser for a layout of column widths and ranges,
+   * separated by commas or spaces.  A number is the width of the
+   * next field, which starts where the previous one ended.  A range,
+   * such as 11-15, is the first and last column of a field (the
+   * first column is 1).  A range with no end, such as 16-, and an
+   * asterisk run to the end of the row.  For example, "10,5,*" and
+   * "1-10,11-15,16-" are the same layout.
+   * 
+   * @param layout the layout of the fields
+   * @param trimFields whether to trim each field
+   * @return the parser for the layout
+   * @throws IllegalArgumentException if the layout is not valid
+   */
+  public static FixedWidthParser parseLayout(final String layout,
+                                             final boolean trimFields)
+  {
+    List<int[]> fields = new ArrayList<int[]>(20);
+    int nextStart = 0;
+    
+    // Iterate over the items in the layout
+    for (String item : layout.trim().split("[,\\s]+"))
+    {
+      // Check for an empty layout
+      if (item.length() < 1)
+      {
+        continue;
+      }
+      else if (nextStart == END_OF_ROW)
+      {
+        throw new IllegalArgumentException(
+                   "No field can follow one that runs to the end of the row");
+      }
+      
+      int nStart = nextStart;
+      int nEnd = END_OF_ROW;
+      final int nDash = item.indexOf('-');
+      if (item.equals("*"))
+      {
+        nEnd = END_OF_ROW;
+      }
+      else if (nDash < 0)
+      {
+        // Check that the end of the field is a valid offset
+        final int nWidth = parsePositive(item);
+        if (nWidth >= (END_OF_ROW - nStart))
+        {
+          throw new IllegalArgumentException("The layout item " + item +
+                                             " ends past the last column");
+        }
+        
+        nEnd = nStart + nWidth;
+      }
+      else
+      {
+        // Convert the columns to offsets
+        nStart = parsePositive(item.substring(0, nDash)) - 1;
+        if (nDash < (item.length() - 1))
+        {
+          nEnd = parsePositive(item.substring(nDash + 1));
+          if (nEnd == END_OF_ROW)
+          {
+            throw new IllegalArgumentException("The layout item " + item +
+                                               " ends past the last column");
+          }
+          else if (nEnd <= nStart)
+          {
+            throw new IllegalArgumentException("The range " + item +
+                                               " ends before it starts");
+          }
+        }
+      }
+      
+      fields.add(new int[] {nStart, nEnd});
+      nextStart = nEnd;
+    }
+    
+    // Check for at least one field
+    final int nCount = fields.size();
+    if (nCount < 1)
+    {
+      throw new IllegalArgumentException("The layout has no fields");
+    }
+    
+    int[] startOffsets = new int[nCount];
+    int[] endOffsets = new int[nCount];
+    for (int i = 0; i < nCount; ++i)
+    {
+      startOffsets[i] = fields.get(i)[0];
+      endOffsets[i] = fields.get(i)[1];
+    }
+    
+    return new FixedWidthParser(startOffsets, endOffsets, trimFields);
+  }
+  
+  
+  /**
+   * Parse a positive number in a layout.
+   * 
+   * @param item the number
+   * @return the value of the number
+   * @throws IllegalArgumentException if it's not a positive number
+   */
+  private static int parsePositive(final String item)
+  {
+    int nValue = 0;
+    try
+    {
+      nValue = Integer.parseInt(item);
+    }
+    catch (NumberFormatException nfe)
+    {
+      nValue = 0;
+    }
+    
+    if (nValue < 1)
+    {
+      throw new IllegalArgumentException("The layout item " + item +
+                                         " is not a positive number");
+    }
+    
+    return nValue;
+  }
+  
+  
+  /**
+   * Returns the number of fields in the layout.
+   * 
+   * @return the number of fields
+   */
+  public int getFieldCount()
+  {
+    return starts.length;
+  }
+  
+  
+  /**
+   * Parses one row into a record.  The row ends at the first row
+   * delimiter, and the fields are sliced from it by their offsets.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  int parseRecord(final CharSequence text, final int start, final int end,
+                  final boolean atEnd, final DelimiterSet rowDelims,
+                  final CSVRecord record)
+  {
+    // Remove the fields of the previous row
+    startRecord(record);
+    
+    // Find the end of the row
+    char[] array = null;
+    int offset = 0;
+    int rowEnd = start;
+    if ((text instanceof CharBuffer) && ((CharBuffer) text).hasArray())
+    {
+      final CharBuffer cb = (CharBuffer) text;
+      array = cb.array();
+      offset = cb.arrayOffset() + cb.position();
+      while ((rowEnd < end) && (!rowDelims.contains(array[offset + rowEnd])))
+      {
+        ++rowEnd;
+      }
+    }
+    else
+    {
+      while ((rowEnd < end) && (!rowDelims.contains(text.charAt(rowEnd))))
+      {
+        ++rowEnd;
+      }
+    }
+    
+    // Check if more text is needed
+    if ((rowEnd == end) && (!atEnd))
+    {
+      return -1;
+    }
+    
+    // Slice each field from the row
+    final int nLen = rowEnd - start;
+    final int nCount = starts.length;
+    for (int i = 0; (i < nCount) && (!record.isFull()); ++i)
+    {
+      final int nStart = start + Math.min(starts[i], nLen);
+      final int nEnd = start + Math.min(ends[i], nLen);
+      if (array != null)
+      {
+        record.append(array, offset + nStart, offset + nEnd);
+      }
+      else
+      {
+        record.append(text, nStart, nEnd);
+      }
+      
+      record.endField(bTrimFields);
+    }
+    
+    return rowEnd;
+  }
+  
+  
+  /**
+   * Returns false, because the columns count characters, so the
+   * text must be decoded before the fields can be found.
+   * 
+   * @return false
+   */
+  boolean hasAsciiDelimiters()
+  {
+    return false;
+  }
+}
@@ -0,0 +1,283 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The functions that can be called from a pattern, by name.
+ * Function calls are resolved against a registry when the
+ * pattern is compiled, so applying a pattern to a row calls
+ * the function objects directly.  New functions can be added
+ * with register(); this should be done before the patterns
+ * that use them are compiled.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class FunctionRegistry
+{
+  /**
+   * The built-in $lower function.
+   */
+  static final TextFunction LOWER = new TextFunction(1, 1)
+  {
+    public void apply(final CharSequence[] args, final Appendable out)
+      throws IOException
+    {
+      CaseTransform.appendLower(args[0], out);
+    }
+  };
+  
+  /**
+   * The built-in $upper function.
+   */
+  static final TextFunction UPPER = new TextFunction(1, 1)
+  {
+    public void apply(final CharSequence[] args, final Appendable out)
+      throws IOException
+    {
+      CaseTransform.appendUpper(args[0], out);
+    }
+  };
+  
+  /**
+   * The built-in $title function.
+   */
+  static final TextFunction TITLE = new TextFunction(1, 1)
+  {
+    public void apply(final CharSequence[] args, final Appendable out)
+      throws IOException
+    {
+      CaseTransform.appendTitle(args[0], out);
+    }
+  };
+  
+  /**
+   * The registry used when no other registry is specified.  It is
+   * created after the built-in functions it registers.
+   */
+  private static final FunctionRegistry defaultRegistry = new FunctionRegistry();
+  
+  /**
+   * The map of function names to functions.
+   */
+  private final Map<String, TextFunction> functions =
+    new HashMap<String, TextFunction>(20);
+  
+  
+  /**
+   * Default constructor.  The registry starts with the built-in
+   * functions.
+   */
+  public FunctionRegistry()
+  {
+    super();
+    registerBuiltIns();
+  }
+  
+  
+  /**
+   * Returns the registry used when no other registry is specified.
+   * 
+   * @return the default registry
+   */
+  public static FunctionRegistry getDefault()
+  {
+    return defaultRegistry;
+  }
+  
+  
+  /**
+   * Add a function to the registry, replacing any function with
+   * the same name.  The function is called from a pattern as
+   * $name(arguments).
+   * 
+   * @param name the name of the function
+   * @param function the function
+   */
+  public synchronized void register(final String name,
+                                    final TextFunction function)
+  {
+    functions.put(name, function);
+  }
+  
+  
+  /**
+   * Return the function with the specified name.
+   * 
+   * @param name the name of the function
+   * @return the function, or null if there is none with that name
+   */
+  public synchronized TextFunction get(final String name)
+  {
+    return functions.get(name);
+  }
+  
+  
+  /**
+   * Add the built-in functions to the registry.
+   */
+  private void registerBuiltIns()
+  {
+    // $lower(text): make the text lowercase
+    register("lower", LOWER);
+    
+    // $upper(text): make the text uppercase
+    register("upper", UPPER);
+    
+    // $title(text): make the text titlecase
+    register("title", TITLE);
+    
+    // $trim(text): remove leading and trailing whitespace
+    register("trim", new TextFunction(1, 1)
+    {
+      public void apply(final CharSequence[] args, final Appendable out)
+        throws IOException
+      {
+        final CharSequence text = args[0];
+        int start = 0;
+        int end = text.length();
+        while ((start < end) && (text.charAt(start) <= ' '))
+        {
+          ++start;
+        }
+        while ((end > start) && (text.charAt(end - 1) <= ' '))
+        {
+          --end;
+        }
+        
+        out.append(text, start, end);
+      }
+    });
+    
+    // $substr(text, start, length): the part of the text starting at
+    // the zero-based index start; without length, up to the end
+    register("substr", new TextFunction(2, 3)
+    {
+      public void apply(final CharSequence[] args, final Appendable out)
+        throws IOException
+      {
+        final CharSequence text = args[0];
+        final int nLen = text.length();
+        final int start = Math.min(Math.max(toInt(args[1], 0), 0), nLen);
+        int end = nLen;
+        if (args.length > 2)
+        {
+          end = start + Math.min(Math.max(toInt(args[2], 0), 0), nLen - start);
+        }
+        
+        out.append(text, start, end);
+      }
+    });
+    
+    // $pad(text, width, fill): pad the text with spaces (or the first
+    // character of fill) to the width; as with printf, a positive
+    // width pads on the left and a negative width pads on the right
+    register("pad", new TextFunction(2, 3)
+    {
+      public void apply(final CharSequence[] args, final Appendable out)
+        throws IOException
+      {
+        final CharSequence text = args[0];
+        final int width = toInt(args[1], 0);
+        final char fill = ((args.length > 2) && (args[2].length() > 0))
+                          ? args[2].charAt(0) : ' ';
+        final int nPadding = Math.abs(width) - text.length();
+        
+        if (width < 0)
+        {
+          out.append(text);
+        }
+        for (int i = 0; i < nPadding; ++i)
+        {
+          out.append(fill);
+        }
+        if (width >= 0)
+        {
+          out.append(text);
+        }
+      }
+    });
+    
+    // $replace(text, target, replacement): replace every occurrence
+    // of target in the text
+    register("replace", new TextFunction(3, 3)
+    {
+      public void apply(final CharSequence[] args, final Appendable out)
+        throws IOException
+      {
+        final String text = args[0].toString();
+        final String target = args[1].toString();
+        if (target.length() < 1)
+        {
+          out.append(text);
+          return;
+        }
+        
+        int start = 0;
+        int index = text.indexOf(target);
+        while (index >= 0)
+        {
+          out.append(text, start, index).append(args[2]);
+          start = index + target.length();
+          index = text.indexOf(target, start);
+        }
+        out.append(text, start, text.length());
+      }
+    });
+    
+    // $default(text, fallback): the text, or the fallback if the
+    // text is empty or the row doesn't have the field
+    register("default", new TextFunction(2, 2)
+    {
+      public boolean acceptsMissingArguments()
+      {
+        return true;
+      }
+      
+      public void apply(final CharSequence[] args, final Appendable out)
+        throws IOException
+      {
+        final CharSequence text = args[0];
+        if ((text != null) && (text.length() > 0))
+        {
+          out.append(text);
+        }
+        else if (args[1] != null)
+        {
+          out.append(args[1]);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,261 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+/**
+ * A single step in a compiled pattern.  Each non-comment line
+ * of the pattern is turned into one instruction when the
+ * pattern is compiled.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class Instruction
+{
+  /**
+   * Output the text and a line separator.  The line is empty
+   * or only whitespace, so it is not parsed.
+   */
+  static final int OP_RAW = 0;
+  
+  /**
+   * Apply the row to the pattern line and output the result.
+   */
+  static final int OP_TEXT = 1;
+  
+  /**
+   * Test a condition ($if or $elseif), and jump to the target
+   * if the condition is false.
+   */
+  static final int OP_IF = 2;
+  
+  /**
+   * Jump to the target (the end of an if-block).
+   */
+  static final int OP_JUMP = 3;
+  
+  /**
+   * Jump to the case of a $switch statement that matches the row,
+   * or to the target if no case matches.
+   */
+  static final int OP_SWITCH = 4;
+  
+  /**
+   * The type of instruction.
+   */
+  private final int opcode;
+  
+  /**
+   * The text of the instruction.  For OP_RAW and OP_TEXT this
+   * is the pattern line; for OP_IF and OP_ELSEIF it is the
+   * condition to test.
+   */
+  private final String text;
+  
+  /**
+   * The tokenized pattern line, for OP_TEXT instructions.
+   */
+  private final Segment[] segments;
+  
+  /**
+   * The compiled condition, for OP_IF instructions.
+   */
+  private final Condition condition;
+  
+  /**
+   * The lookup table, for OP_SWITCH instructions.
+   */
+  private final SwitchTable switchTable;
+  
+  /**
+   * The index of the instruction to jump to, for OP_IF and OP_JUMP
+   * instructions.  OP_SWITCH instructions keep their targets in the
+   * lookup table.  This is set while the pattern is compiled, once
+   * the end of the branch is known.
+   */
+  private int target = -1;
+  
+  
+  /**
+   * Constructor taking the instruction type and its text.
+   * 
+   * @param nOpcode the type of instruction
+   * @param sText the text of the instruction
+   */
+  Instruction(final int nOpcode, final String sText)
+  {
+    this(nOpcode, sText, null, null, null);
+  }
+  
+  
+  /**
+   * Constructor taking the instruction type, its text and the
+   * tokenized form of the text.
+   * 
+   * @param nOpcode the type of instruction
+   * @param sText the text of the instruction
+   * @param lineSegments the tokenized pattern line
+   */
+  Instruction(final int nOpcode, final String sText,
+              final Segment[] lineSegments)
+  {
+    this(nOpcode, sText, lineSegments, null, null);
+  }
+  
+  
+  /**
+   * Constructor taking the instruction type, its text and the
+   * compiled condition.
+   * 
+   * @param nOpcode the type of instruction
+   * @param sText the text of the instruction
+   * @param ifCondition the compiled condition
+   */
+  Instruction(final int nOpcode, final String sText,
+              final Condition ifCondition)
+  {
+    this(nOpcode, sText, null, ifCondition, null);
+  }
+  
+  
+  /**
+   * Constructor taking the instruction type, its text and the
+   * lookup table for a $switch statement.
+   * 
+   * @param nOpcode the type of instruction
+   * @param sText the text of the instruction
+   * @param table the lookup table
+   */
+  Instruction(final int nOpcode, final String sText,
+              final SwitchTable table)
+  {
+    this(nOpcode, sText, null, null, table);
+  }
+  
+  
+  /**
+   * Constructor taking all of the fields.
+   * 
+   * @param nOpcode the type of instruction
+   * @param sText the text of the instruction
+   * @param lineSegments the tokenized pattern line
+   * @param ifCondition the compiled condition
+   * @param table the lookup table
+   */
+  private Instruction(final int nOpcode, final String sText,
+                      final Segment[] lineSegments,
+                      final Condition ifCondition,
+                      final SwitchTable table)
+  {
+    super();
+    opcode = nOpcode;
+    text = sText;
+    segments = lineSegments;
+    condition = ifCondition;
+    switchTable = table;
+  }
+  
+  
+  /**
+   * Returns the type of instruction.
+   * 
+   * @return the type of instruction
+   */
+  int getOpcode()
+  {
+    return opcode;
+  }
+  
+  
+  /**
+   * Returns the text of the instruction.
+   * 
+   * @return the text of the instruction
+   */
+  String getText()
+  {
+    return text;
+  }
+  
+  
+  /**
+   * Returns the tokenized pattern line.
+   * 
+   * @return the segments of the pattern line
+   */
+  Segment[] getSegments()
+  {
+    return segments;
+  }
+  
+  
+  /**
+   * Returns the compiled condition.
+   * 
+   * @return the condition of an OP_IF instruction
+   */
+  Condition getCondition()
+  {
+    return condition;
+  }
+  
+  
+  /**
+   * Returns the lookup table.
+   * 
+   * @return the lookup table of an OP_SWITCH instruction
+   */
+  SwitchTable getSwitchTable()
+  {
+    return switchTable;
+  }
+  
+  
+  /**
+   * Returns the index of the instruction to jump to.
+   * 
+   * @return the jump target
+   */
+  int getTarget()
+  {
+    return target;
+  }
+  
+  
+  /**
+   * Set the index of the instruction to jump to.
+   * 
+   * @param nTarget the jump target
+   */
+  void setTarget(final int nTarget)
+  {
+    target = nTarget;
+  }
+}
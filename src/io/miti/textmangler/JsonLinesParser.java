@@ -0,0 +1,836 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parse rows of JSON Lines, where each row is one JSON value
+ * (usually an object).  A list of keys, or dotted paths such as
+ * "address.city" or "items.0.name", is mapped to the fields $1,
+ * $2 and so on.  The row is tokenized in one pass with no document
+ * built: values that no referenced path leads to are skipped by
+ * matching brackets, and the row is left as soon as every referenced
+ * field has been found.  A string value is unescaped, null is empty,
+ * and any other value (including an object or array) is kept as it
+ * appears in the row.  A key can be a field and also the parent of
+ * other fields.  A path that is not in the row is empty, and
+ * a row that is not valid JSON keeps the values found before the
+ * error.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class JsonLinesParser extends RowParser
+{
+  /**
+   * The root of the tree of paths.
+   */
+  private final PathNode root = new PathNode();
+  
+  /**
+   * The number of fields (paths).
+   */
+  private final int nFields;
+  
+  /**
+   * Whether to trim each field.
+   */
+  private boolean bTrimFields = false;
+  
+  /**
+   * The index of the start of the value of each field in the row,
+   * or -1 if the value has not been found.
+   */
+  private final int[] valueStarts;
+  
+  /**
+   * The index of the end of the value of each field in the row.
+   */
+  private final int[] valueEnds;
+  
+  /**
+   * Whether the value of each field is a string.
+   */
+  private final boolean[] valueIsString;
+  
+  /**
+   * The number of referenced fields not found yet in the row.
+   */
+  private int nMissing = 0;
+  
+  /**
+   * The row being parsed.
+   */
+  private CharSequence text = null;
+  
+  /**
+   * The index of the next character to parse.
+   */
+  private int pos = 0;
+  
+  /**
+   * The index of the end of the row.
+   */
+  private int limit = 0;
+  
+  /**
+   * The buffer for keys that contain escapes.
+   */
+  private final StringBuilder keyBuffer = new StringBuilder(20);
+  
+  
+  /**
+   * Constructor taking the paths of the fields.
+   * 
+   * @param paths the key or dotted path of each field
+   * @param trimFields whether to trim each field
+   * @throws IllegalArgumentException if a path is listed more than once
+   */
+  public JsonLinesParser(final List<String> paths, final boolean trimFields)
+  {
+    super();
+    
+    // Build the tree of paths
+    nFields = paths.size();
+    for (int i = 0; i < nFields; ++i)
+    {
+      PathNode node = root;
+      for (String key : paths.get(i).split("\\.", -1))
+      {
+        node = node.getChild(key);
+      }
+      
+      // Each path can only be mapped to one field
+      if (node.field >= 0)
+      {
+        throw new IllegalArgumentException("The key " + paths.get(i) +
+                                           " is listed more than once");
+      }
+      
+      node.field = i;
+    }
+    
+    bTrimFields = trimFields;
+    valueStarts = new int[nFields];
+    valueEnds = new int[nFields];
+    valueIsString = new boolean[nFields];
+  }
+  
+  
+  /**
+   * Returns a parser for a list of paths separated by commas.
+   * 
+   * @param keys the paths of the fields
+   * @param trimFields whether to trim each field
+   * @return the parser for the paths
+   * @throws IllegalArgumentException if there are no paths, or a
+   *         path is listed more than once
+   */
+  public static JsonLinesParser parseKeys(final String keys,
+                                          final boolean trimFields)
+  {
+    List<String> paths = new ArrayList<String>(20);
+    for (String key : keys.split(","))
+    {
+      final String path = key.trim();
+      if (path.length() > 0)
+      {
+        paths.add(path);
+      }
+    }
+    
+    if (paths.isEmpty())
+    {
+      throw new IllegalArgumentException(
+                 "List the keys to map to $1, $2 and so on, separated by commas");
+    }
+    
+    return new JsonLinesParser(paths, trimFields);
+  }
+  
+  
+  /**
+   * Parses one row into a record.  The row ends at the first row
+   * delimiter.
+   * 
+   * @param rowText the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  int parseRecord(final CharSequence rowText, final int start,
+                  final int end, final boolean atEnd,
+                  final DelimiterSet rowDelims, final CSVRecord record)
+  {
+    // Remove the fields of the previous row
+    startRecord(record);
+    
+    // Find the end of the row
+    final int rowEnd = findRowEnd(rowText, start, end, rowDelims);
+    
+    // Check if more text is needed
+    if ((rowEnd == end) && (!atEnd))
+    {
+      return -1;
+    }
+    
+    // Count the fields to find
+    Arrays.fill(valueStarts, -1);
+    nMissing = 0;
+    for (int i = 0; i < nFields; ++i)
+    {
+      if (isReferenced(i))
+      {
+        ++nMissing;
+      }
+    }
+    
+    // Find the values of the fields
+    text = rowText;
+    pos = start;
+    limit = rowEnd;
+    if (nMissing > 0)
+    {
+      skipSpaces();
+      parseValue(root);
+    }
+    
+    // Add the fields in order
+    for (int i = 0; (i < nFields) && (!record.isFull()); ++i)
+    {
+      if (valueStarts[i] >= 0)
+      {
+        if (valueIsString[i])
+        {
+          appendString(valueStarts[i], valueEnds[i], record);
+        }
+        else
+        {
+          record.append(rowText, valueStarts[i], valueEnds[i]);
+        }
+      }
+      
+      record.endField(bTrimFields);
+    }
+    
+    text = null;
+    return rowEnd;
+  }
+  
+  
+  /**
+   * Returns false, because a string can contain \\u escapes that
+   * must not be decoded again as UTF-8, so the text must be decoded
+   * first.
+   * 
+   * @return false
+   */
+  boolean hasAsciiDelimiters()
+  {
+    return false;
+  }
+  
+  
+  /**
+   * Parse the value at the current position.
+   * 
+   * @param node the path to the value, or null if no referenced
+   *             field is at or under this value
+   * @return false if the row is not valid JSON, or every referenced
+   *         field has been found, so parsing can stop
+   */
+  private boolean parseValue(final PathNode node)
+  {
+    if (pos >= limit)
+    {
+      return false;
+    }
+    
+    // Skip the value if no field needs it
+    final boolean bCapture = (node != null) && (node.field >= 0) &&
+                             (isReferenced(node.field));
+    if ((node == null) || ((!bCapture) && (node.children == null)))
+    {
+      return skipValue();
+    }
+    
+    // Look for the fields under an object or array, even if the
+    // value itself is also a field
+    final int nStart = pos;
+    final char ch = text.charAt(pos);
+    final boolean bValid;
+    if ((ch == '{') && (node.children != null))
+    {
+      bValid = parseObject(node);
+    }
+    else if ((ch == '[') && (node.children != null))
+    {
+      bValid = parseArray(node);
+    }
+    else
+    {
+      bValid = skipValue();
+    }
+    
+    // If the value is not a field, parsing stops when the children
+    // are invalid or every field has been found.  Otherwise this
+    // field is still missing, so a false result means the value is
+    // not valid.
+    if ((!bCapture) || (!bValid))
+    {
+      return bValid;
+    }
+    
+    // Save the value; a string is saved without its quotes, and
+    // null is saved as empty
+    final int nField = node.field;
+    if (ch == '"')
+    {
+      valueStarts[nField] = nStart + 1;
+      valueEnds[nField] = pos - 1;
+      valueIsString[nField] = true;
+    }
+    else
+    {
+      final boolean bNull = ((pos - nStart) == 4) && (text.charAt(nStart) == 'n');
+      valueStarts[nField] = nStart;
+      valueEnds[nField] = bNull ? nStart : pos;
+      valueIsString[nField] = false;
+    }
+    
+    --nMissing;
+    return (nMissing > 0);
+  }
+  
+  
+  /**
+   * Parse the object at the current position, looking for the keys
+   * under the node.
+   * 
+   * @param node the path to the object
+   * @return false if parsing can stop
+   */
+  private boolean parseObject(final PathNode node)
+  {
+    // Skip the opening brace
+    ++pos;
+    skipSpaces();
+    if ((pos < limit) && (text.charAt(pos) == '}'))
+    {
+      ++pos;
+      return true;
+    }
+    
+    while (pos < limit)
+    {
+      // Read the key
+      if (text.charAt(pos) != '"')
+      {
+        return false;
+      }
+      
+      final int nKeyStart = pos + 1;
+      final boolean bEscaped = skipString();
+      if (pos > limit)
+      {
+        return false;
+      }
+      
+      final PathNode child = node.findChild(text, nKeyStart, pos - 1,
+                                            bEscaped, keyBuffer);
+      
+      // Read the value
+      skipSpaces();
+      if ((pos >= limit) || (text.charAt(pos) != ':'))
+      {
+        return false;
+      }
+      
+      ++pos;
+      skipSpaces();
+      if (!parseValue(child))
+      {
+        return false;
+      }
+      
+      // Check for the next key or the end of the object
+      skipSpaces();
+      if (pos >= limit)
+      {
+        return false;
+      }
+      
+      final char ch = text.charAt(pos++);
+      if (ch == '}')
+      {
+        return true;
+      }
+      else if (ch != ',')
+      {
+        return false;
+      }
+      
+      skipSpaces();
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Parse the array at the current position, looking for the
+   * indexes under the node.
+   * 
+   * @param node the path to the array
+   * @return false if parsing can stop
+   */
+  private boolean parseArray(final PathNode node)
+  {
+    // Skip the opening bracket
+    ++pos;
+    skipSpaces();
+    if ((pos < limit) && (text.charAt(pos) == ']'))
+    {
+      ++pos;
+      return true;
+    }
+    
+    int nIndex = 0;
+    while (pos < limit)
+    {
+      if (!parseValue(node.findChild(nIndex)))
+      {
+        return false;
+      }
+      
+      // Check for the next element or the end of the array
+      skipSpaces();
+      if (pos >= limit)
+      {
+        return false;
+      }
+      
+      final char ch = text.charAt(pos++);
+      if (ch == ']')
+      {
+        return true;
+      }
+      else if (ch != ',')
+      {
+        return false;
+      }
+      
+      skipSpaces();
+      ++nIndex;
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Skip the value at the current position.  Objects and arrays are
+   * skipped by matching brackets, without looking at their keys.
+   * 
+   * @return false if the value is not valid
+   */
+  private boolean skipValue()
+  {
+    if (pos >= limit)
+    {
+      return false;
+    }
+    
+    // Check for a string
+    final char first = text.charAt(pos);
+    if (first == '"')
+    {
+      skipString();
+      return (pos <= limit);
+    }
+    else if ((first != '{') && (first != '['))
+    {
+      // A number, true, false or null
+      while ((pos < limit) && (!isEndOfScalar(text.charAt(pos))))
+      {
+        ++pos;
+      }
+      
+      return true;
+    }
+    
+    // Skip to the matching bracket
+    int nDepth = 0;
+    while (pos < limit)
+    {
+      final char ch = text.charAt(pos);
+      if (ch == '"')
+      {
+        skipString();
+        continue;
+      }
+      
+      ++pos;
+      if ((ch == '{') || (ch == '['))
+      {
+        ++nDepth;
+      }
+      else if ((ch == '}') || (ch == ']'))
+      {
+        --nDepth;
+        if (nDepth == 0)
+        {
+          return true;
+        }
+      }
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Returns whether a character ends a number, true, false or null.
+   * 
+   * @param ch the character
+   * @return whether the character ends the value
+   */
+  private static boolean isEndOfScalar(final char ch)
+  {
+    return ((ch <= ' ') || (ch == ',') || (ch == '}') || (ch == ']'));
+  }
+  
+  
+  /**
+   * Skip the string at the current position, including its quotes.
+   * If the string is not closed, the position is set past the end.
+   * 
+   * @return whether the string contains escapes
+   */
+  private boolean skipString()
+  {
+    boolean bEscaped = false;
+    ++pos;
+    while (pos < limit)
+    {
+      final char ch = text.charAt(pos++);
+      if (ch == '"')
+      {
+        return bEscaped;
+      }
+      else if (ch == '\\')
+      {
+        bEscaped = true;
+        ++pos;
+      }
+    }
+    
+    pos = limit + 1;
+    return bEscaped;
+  }
+  
+  
+  /**
+   * Skip any whitespace at the current position.
+   */
+  private void skipSpaces()
+  {
+    while ((pos < limit) && (text.charAt(pos) <= ' '))
+    {
+      ++pos;
+    }
+  }
+  
+  
+  /**
+   * Add the contents of a string, with its escapes replaced, to
+   * the field being built.
+   * 
+   * @param start the index after the opening quote
+   * @param end the index of the closing quote
+   * @param record the record to hold the fields
+   */
+  private void appendString(final int start, final int end,
+                            final CSVRecord record)
+  {
+    int i = start;
+    while (i < end)
+    {
+      // Add the characters up to the next escape
+      final int nRunStart = i;
+      while ((i < end) && (text.charAt(i) != '\\'))
+      {
+        ++i;
+      }
+      
+      record.append(text, nRunStart, i);
+      if (i >= (end - 1))
+      {
+        break;
+      }
+      
+      final char ch = text.charAt(i + 1);
+      i += 2;
+      if ((ch == 'u') && (i + 4 <= end))
+      {
+        record.append(decodeHex(text, i));
+        i += 4;
+      }
+      else
+      {
+        record.append(unescape(ch));
+      }
+    }
+  }
+  
+  
+  /**
+   * Returns the character for a \\u escape.
+   * 
+   * @param seq the text
+   * @param index the index of the four hex digits
+   * @return the character, or U+FFFD if the digits are not valid
+   */
+  private static char decodeHex(final CharSequence seq, final int index)
+  {
+    int nValue = 0;
+    for (int i = index; i < index + 4; ++i)
+    {
+      final int nDigit = Character.digit(seq.charAt(i), 16);
+      if (nDigit < 0)
+      {
+        return '\uFFFD';
+      }
+      
+      nValue = (nValue << 4) | nDigit;
+    }
+    
+    return (char) nValue;
+  }
+  
+  
+  /**
+   * Returns the character for a JSON escape other than \\u.
+   * 
+   * @param ch the character after the backslash
+   * @return the character it stands for
+   */
+  private static char unescape(final char ch)
+  {
+    switch (ch)
+    {
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      default:
+        return ch;
+    }
+  }
+  
+  
+  /**
+   * A node in the tree of paths.  Each child is reached by a key,
+   * or by an array index.
+   */
+  private static final class PathNode
+  {
+    /**
+     * The index of the field at this path, or -1 if none.
+     */
+    private int field = -1;
+    
+    /**
+     * The keys of the children, or null if there are none.
+     */
+    private List<String> keys = null;
+    
+    /**
+     * The children, in the same order as keys.
+     */
+    private List<PathNode> children = null;
+    
+    
+    /**
+     * Default constructor.
+     */
+    public PathNode()
+    {
+      super();
+    }
+    
+    
+    /**
+     * Return the child for the key, adding it if needed.
+     * 
+     * @param key the key
+     * @return the child node
+     */
+    public PathNode getChild(final String key)
+    {
+      if (children == null)
+      {
+        keys = new ArrayList<String>(5);
+        children = new ArrayList<PathNode>(5);
+      }
+      
+      final int nIndex = keys.indexOf(key);
+      if (nIndex >= 0)
+      {
+        return children.get(nIndex);
+      }
+      
+      PathNode child = new PathNode();
+      keys.add(key);
+      children.add(child);
+      return child;
+    }
+    
+    
+    /**
+     * Returns the child for a key in the text, without making
+     * a string of the key, or null if there is no such child.
+     * 
+     * @param seq the text
+     * @param start the index of the start of the key
+     * @param end the index of the end of the key
+     * @param escaped whether the key contains escapes
+     * @param buffer a buffer for unescaping the key
+     * @return the child node, or null
+     */
+    public PathNode findChild(final CharSequence seq, final int start,
+                              final int end, final boolean escaped,
+                              final StringBuilder buffer)
+    {
+      if (children == null)
+      {
+        return null;
+      }
+      
+      // Unescape the key, if needed
+      CharSequence key = seq;
+      int nStart = start;
+      int nLen = end - start;
+      if (escaped)
+      {
+        buffer.setLength(0);
+        for (int i = start; i < end; ++i)
+        {
+          char ch = seq.charAt(i);
+          if ((ch == '\\') && (i < (end - 1)))
+          {
+            ch = seq.charAt(++i);
+            if ((ch == 'u') && (i + 5 <= end))
+            {
+              ch = decodeHex(seq, i + 1);
+              i += 4;
+            }
+            else
+            {
+              ch = unescape(ch);
+            }
+          }
+          
+          buffer.append(ch);
+        }
+        
+        key = buffer;
+        nStart = 0;
+        nLen = buffer.length();
+      }
+      
+      // Compare the key with each child's key
+      final int nSize = keys.size();
+      for (int i = 0; i < nSize; ++i)
+      {
+        final String childKey = keys.get(i);
+        if (childKey.length() != nLen)
+        {
+          continue;
+        }
+        
+        int j = 0;
+        while ((j < nLen) && (childKey.charAt(j) == key.charAt(nStart + j)))
+        {
+          ++j;
+        }
+        
+        if (j == nLen)
+        {
+          return children.get(i);
+        }
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Returns the child for an array index, or null if there
+     * is no such child.
+     * 
+     * @param index the array index
+     * @return the child node, or null
+     */
+    public PathNode findChild(final int index)
+    {
+      if (children == null)
+      {
+        return null;
+      }
+      
+      final int nSize = keys.size();
+      for (int i = 0; i < nSize; ++i)
+      {
+        final String childKey = keys.get(i);
+        if ((childKey.length() > 0) && (Character.isDigit(childKey.charAt(0))) &&
+            (childKey.equals(Integer.toString(index))))
+        {
+          return children.get(i);
+        }
+      }
+      
+      return null;
+    }
+  }
+}
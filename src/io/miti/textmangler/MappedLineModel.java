@@ -0,0 +1,506 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingWorker;
+
+/**
+ * A list model of the lines of a UTF-8 text file, for showing files
+ * too large to load into a text area.  The file is memory-mapped a
+ * window at a time, and only the lines that are asked for (the ones
+ * on the screen) are decoded.  The index keeps the offset of every
+ * LINES_PER_CHECKPOINT-th line, so it stays small for files with
+ * many lines; a line is found by scanning forward from the nearest
+ * offset.  Very long lines are cut short.
+ * <p>
+ * The index is built by a background task started by startIndex(),
+ * and the lines are added to the model as they are found, so a large
+ * file does not hold up the event dispatch thread.  The number of
+ * lines is capped by the caller, so the height of a list of them in
+ * pixels fits in an int; if the file has more lines, the last line
+ * of the model is a note saying so.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class MappedLineModel extends AbstractListModel<String>
+{
+  /**
+   * Default serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The number of lines between the offsets saved in the index.
+   */
+  private static final int LINES_PER_CHECKPOINT = 64;
+  
+  /**
+   * The size of the window of the file that is mapped at a time.
+   */
+  private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+  
+  /**
+   * The largest number of bytes of a line that are shown.
+   */
+  private static final int MAX_LINE_BYTES = 4096;
+  
+  /**
+   * The character set of the file.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  /**
+   * The line shown after the last line, if the file has too many
+   * lines to show.
+   */
+  private static final String TRUNCATED_NOTE =
+    "[The file has more lines than can be shown]";
+  
+  /**
+   * The input file.
+   */
+  private final transient FileInputStream stream;
+  
+  /**
+   * The channel for the input file.
+   */
+  private final transient FileChannel channel;
+  
+  /**
+   * The size of the file, in bytes.
+   */
+  private final long fileSize;
+  
+  /**
+   * The largest number of lines to show, including the note shown
+   * if the file has more lines.
+   */
+  private final int nMaxLines;
+  
+  /**
+   * The offset of the start of every LINES_PER_CHECKPOINT-th line.
+   * This is written by the background task, and read for the lines
+   * it has published.
+   */
+  private volatile long[] checkpoints = new long[1024];
+  
+  /**
+   * The number of bytes in the longest line found so far.
+   */
+  private volatile int nLongestLine = 0;
+  
+  /**
+   * Whether the background task stopped before the end of the file,
+   * because the file has too many lines.
+   */
+  private volatile boolean bTruncated = false;
+  
+  /**
+   * The number of lines of the file in the model.  This is only
+   * used on the event dispatch thread.
+   */
+  private int nLines = 0;
+  
+  /**
+   * Whether the model ends with the note that the file has more
+   * lines than can be shown.
+   */
+  private boolean bShowNote = false;
+  
+  /**
+   * The background task that builds the index.
+   */
+  private final transient Indexer indexer = new Indexer();
+  
+  /**
+   * The mapped window of the file.
+   */
+  private transient ByteBuffer window = null;
+  
+  /**
+   * The offset in the file of the start of the window.
+   */
+  private long windowStart = 0L;
+  
+  /**
+   * The index of the line after the last one returned.
+   */
+  private int nNextLine = -1;
+  
+  /**
+   * The offset of the line after the last one returned.
+   */
+  private long nNextLineStart = 0L;
+  
+  /**
+   * The buffer for the bytes of a line.
+   */
+  private final byte[] lineBytes = new byte[MAX_LINE_BYTES];
+  
+  
+  /**
+   * Constructor taking the file to show.  The model is empty until
+   * startIndex() is called.
+   * 
+   * @param file the UTF-8 text file
+   * @param maxLines the largest number of lines to show
+   * @throws IOException if the file cannot be read
+   */
+  public MappedLineModel(final File file, final int maxLines)
+    throws IOException
+  {
+    super();
+    stream = new FileInputStream(file);
+    channel = stream.getChannel();
+    fileSize = channel.size();
+    nMaxLines = Math.max(maxLines, 1);
+  }
+  
+  
+  /**
+   * Start scanning the file for its lines in the background.  The
+   * lines are added to the model, with intervalAdded events on the
+   * event dispatch thread, as they are found.
+   */
+  public void startIndex()
+  {
+    indexer.execute();
+  }
+  
+  
+  /**
+   * Add the lines published by the background task to the model.
+   * 
+   * @param nCount the number of lines found so far
+   */
+  private void showLines(final int nCount)
+  {
+    final int nOldSize = getSize();
+    nLines = nCount;
+    bShowNote = bTruncated;
+    final int nNewSize = getSize();
+    if (nNewSize > nOldSize)
+    {
+      fireIntervalAdded(this, nOldSize, nNewSize - 1);
+    }
+  }
+  
+  
+  /**
+   * Returns the number of lines in the model.
+   * 
+   * @return the number of lines
+   */
+  public int getSize()
+  {
+    return (bShowNote ? (nLines + 1) : nLines);
+  }
+  
+  
+  /**
+   * Returns the length of the longest line found so far, up to
+   * the number of bytes of a line that are shown.
+   * 
+   * @return the length of the longest line
+   */
+  public int getLongestLine()
+  {
+    return (bShowNote ? Math.max(nLongestLine, TRUNCATED_NOTE.length())
+                      : nLongestLine);
+  }
+  
+  
+  /**
+   * Returns the size of the file.
+   * 
+   * @return the number of bytes in the file
+   */
+  public long getFileSize()
+  {
+    return fileSize;
+  }
+  
+  
+  /**
+   * Returns a line of the file, without its line separator.
+   * 
+   * @param index the zero-based index of the line
+   * @return the text of the line
+   */
+  public String getElementAt(final int index)
+  {
+    if (index >= nLines)
+    {
+      return TRUNCATED_NOTE;
+    }
+    
+    try
+    {
+      return readLine(index);
+    }
+    catch (IOException ioe)
+    {
+      return "";
+    }
+  }
+  
+  
+  /**
+   * Stop building the index, and close the file.
+   * 
+   * @throws IOException if the file cannot be closed
+   */
+  public void close() throws IOException
+  {
+    indexer.cancel(false);
+    window = null;
+    stream.close();
+  }
+  
+  
+  /**
+   * Read and decode a line of the file.
+   * 
+   * @param index the zero-based index of the line
+   * @return the text of the line
+   * @throws IOException if the file cannot be read
+   */
+  private String readLine(final int index) throws IOException
+  {
+    // Start from the line after the last one read, if it's on the
+    // way; otherwise, start from the nearest checkpoint
+    int nLine = index - (index % LINES_PER_CHECKPOINT);
+    long offset = checkpoints[index / LINES_PER_CHECKPOINT];
+    if ((nNextLine > nLine) && (nNextLine <= index))
+    {
+      nLine = nNextLine;
+      offset = nNextLineStart;
+    }
+    
+    // Skip to the start of the line
+    while (nLine < index)
+    {
+      while ((offset < fileSize) && (byteAt(offset) != '\n'))
+      {
+        ++offset;
+      }
+      
+      ++offset;
+      ++nLine;
+    }
+    
+    // Copy the bytes of the line, up to the maximum shown
+    int nLen = 0;
+    long end = offset;
+    while ((end < fileSize) && (byteAt(end) != '\n'))
+    {
+      if (nLen < MAX_LINE_BYTES)
+      {
+        lineBytes[nLen++] = byteAt(end);
+      }
+      
+      ++end;
+    }
+    
+    nNextLine = index + 1;
+    nNextLineStart = end + 1;
+    
+    // Remove a carriage return before the line feed
+    if ((nLen > 0) && (nLen == (end - offset)) && (lineBytes[nLen - 1] == '\r'))
+    {
+      --nLen;
+    }
+    
+    return new String(lineBytes, 0, nLen, UTF8);
+  }
+  
+  
+  /**
+   * Returns the byte at an offset in the file, mapping the window
+   * that holds it if needed.
+   * 
+   * @param offset the offset in the file
+   * @return the byte
+   * @throws IOException if the file cannot be mapped
+   */
+  private byte byteAt(final long offset) throws IOException
+  {
+    if ((window == null) || (offset < windowStart) ||
+        (offset >= (windowStart + window.limit())))
+    {
+      map(offset);
+    }
+    
+    return window.get((int) (offset - windowStart));
+  }
+  
+  
+  /**
+   * Map the window of the file that starts at the offset.
+   * 
+   * @param offset the offset in the file of the start of the window
+   * @throws IOException if the file cannot be mapped
+   */
+  private void map(final long offset) throws IOException
+  {
+    final long size = Math.min((long) WINDOW_SIZE, fileSize - offset);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    windowStart = offset;
+  }
+  
+  
+  /**
+   * The background task that scans the file for the start of each
+   * line.  It maps its own windows of the file, and publishes the
+   * number of lines found after each window.
+   */
+  private final class Indexer extends SwingWorker<Void, Integer>
+  {
+    /**
+     * The number of lines found.
+     */
+    private int nFound = 0;
+    
+    
+    /**
+     * Default constructor.
+     */
+    Indexer()
+    {
+      super();
+    }
+    
+    
+    /**
+     * Scan the file for the start of each line.
+     * 
+     * @return null
+     * @throws IOException if the file cannot be read
+     */
+    protected Void doInBackground() throws IOException
+    {
+      long lineStart = 0L;
+      long offset = 0L;
+      while ((offset < fileSize) && (!isCancelled()))
+      {
+        // Map the next window, and find the ends of the lines in it
+        final long size = Math.min((long) WINDOW_SIZE, fileSize - offset);
+        final ByteBuffer buf =
+          channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        final int nLimit = buf.limit();
+        for (int i = 0; i < nLimit; ++i)
+        {
+          if (buf.get(i) == '\n')
+          {
+            if (!addLine(lineStart, offset + i + 1))
+            {
+              publish(Integer.valueOf(nFound));
+              return null;
+            }
+            
+            lineStart = offset + i + 1;
+          }
+        }
+        
+        offset += nLimit;
+        publish(Integer.valueOf(nFound));
+      }
+      
+      // Add the last line, if it has no line separator
+      if ((offset >= fileSize) && (lineStart < fileSize))
+      {
+        addLine(lineStart, fileSize);
+        publish(Integer.valueOf(nFound));
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Add a line to the index.
+     * 
+     * @param start the offset of the start of the line
+     * @param end the offset of the start of the next line
+     * @return false if the line was not added, because there are
+     *         too many lines to show
+     */
+    private boolean addLine(final long start, final long end)
+    {
+      // Leave room for the note that the file has more lines
+      if (nFound >= (nMaxLines - 1))
+      {
+        bTruncated = true;
+        return false;
+      }
+      
+      if ((nFound % LINES_PER_CHECKPOINT) == 0)
+      {
+        final int nCheckpoint = nFound / LINES_PER_CHECKPOINT;
+        long[] points = checkpoints;
+        if (nCheckpoint == points.length)
+        {
+          long[] newCheckpoints = new long[points.length * 2];
+          System.arraycopy(points, 0, newCheckpoints, 0, nCheckpoint);
+          points = newCheckpoints;
+        }
+        
+        points[nCheckpoint] = start;
+        checkpoints = points;
+      }
+      
+      nLongestLine = (int) Math.max(nLongestLine,
+                                    Math.min(end - start, MAX_LINE_BYTES));
+      ++nFound;
+      return true;
+    }
+    
+    
+    /**
+     * Add the lines found to the model.
+     * 
+     * @param chunks the numbers of lines found, in order
+     */
+    protected void process(final List<Integer> chunks)
+    {
+      showLines(chunks.get(chunks.size() - 1).intValue());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+/**
+ * The comparison operators supported by conditional statements.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+enum Operator
+{
+  /** Equal (= or ==). */
+  EQ,
+  
+  /** Not equal (!= or &lt;&gt;). */
+  NE,
+  
+  /** Less than. */
+  LT,
+  
+  /** Less than or equal. */
+  LE,
+  
+  /** Greater than. */
+  GT,
+  
+  /** Greater than or equal. */
+  GE;
+  
+  
+  /**
+   * Return the operator for the string, or null if the string
+   * is not a supported operator.
+   * 
+   * @param op the operator string
+   * @return the matching operator, or null
+   */
+  static Operator fromString(final String op)
+  {
+    // Check for different values for the operation
+    if ((op.equals("=")) || (op.equals("==")))
+    {
+      return EQ;
+    }
+    else if ((op.equals("!=")) || (op.equals("<>")))
+    {
+      return NE;
+    }
+    else if (op.equals(">"))
+    {
+      return GT;
+    }
+    else if (op.equals("<"))
+    {
+      return LT;
+    }
+    else if (op.equals(">="))
+    {
+      return GE;
+    }
+    else if (op.equals("<="))
+    {
+      return LE;
+    }
+    
+    // Not a supported operator
+    return null;
+  }
+  
+  
+  /**
+   * Returns whether the result of a comparison (negative, zero
+   * or positive, as returned by compareTo()) satisfies this operator.
+   * 
+   * @param comparison the result of the comparison
+   * @return whether the comparison satisfies this operator
+   */
+  boolean matches(final int comparison)
+  {
+    switch (this)
+    {
+      case EQ:
+        return (comparison == 0);
+      case NE:
+        return (comparison != 0);
+      case LT:
+        return (comparison < 0);
+      case LE:
+        return (comparison <= 0);
+      case GT:
+        return (comparison > 0);
+      default:
+        return (comparison >= 0);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+
+/**
+ * A source of records, such as a CSVRecordReader.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public interface RecordSource
+{
+  /**
+   * Parse the next row into a record.
+   * 
+   * @param record the record to hold the fields
+   * @return true if a row was read, or false at the end of the input
+   * @throws IOException if the input cannot be read
+   */
+  boolean next(final CSVRecord record) throws IOException;
+  
+  
+  /**
+   * Returns how much of the input has been parsed so far, such as
+   * the number of characters or bytes, to show progress.
+   * 
+   * @return the amount of the input parsed
+   */
+  long getPosition();
+  
+  
+  /**
+   * Close the input.
+   * 
+   * @throws IOException if the input cannot be closed
+   */
+  void close() throws IOException;
+}
@@ -0,0 +1,169 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parse rows with a regular expression, such as the lines of a log
+ * file.  Each capture group is a field: group 1 is $1, group 2 is
+ * $2, and so on.  Named groups are numbered in the same way, by the
+ * position of their opening parenthesis.  If the expression has no
+ * groups, the whole match is $1.  The first match in the row is
+ * used, and a row with no match has no fields, so it is skipped.
+ * The expression is compiled once, and its matcher is reused for
+ * every row.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class RegexParser extends RowParser
+{
+  /**
+   * The matcher for the expression, reused for every row.
+   */
+  private final Matcher matcher;
+  
+  /**
+   * The text the matcher was last reset with.
+   */
+  private CharSequence matcherText = null;
+  
+  /**
+   * The number of the first group that is a field.
+   */
+  private final int nFirstGroup;
+  
+  /**
+   * The number of the last group that is a field.
+   */
+  private final int nLastGroup;
+  
+  /**
+   * Whether to trim each field.
+   */
+  private boolean bTrimFields = false;
+  
+  
+  /**
+   * Constructor taking the regular expression.
+   * 
+   * @param regex the regular expression
+   * @param trimFields whether to trim each field
+   * @throws IllegalArgumentException if the expression is empty
+   *         or not valid (a PatternSyntaxException)
+   */
+  public RegexParser(final String regex, final boolean trimFields)
+  {
+    super();
+    
+    // Check the input
+    if ((regex == null) || (regex.length() < 1))
+    {
+      throw new IllegalArgumentException(
+                 "Enter a regular expression with a group for each field");
+    }
+    
+    matcher = Pattern.compile(regex).matcher("");
+    nLastGroup = matcher.groupCount();
+    nFirstGroup = (nLastGroup == 0) ? 0 : 1;
+    bTrimFields = trimFields;
+  }
+  
+  
+  /**
+   * Parses one row into a record, with a field for each group
+   * of the first match in the row.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if more text is needed
+   */
+  int parseRecord(final CharSequence text, final int start, final int end,
+                  final boolean atEnd, final DelimiterSet rowDelims,
+                  final CSVRecord record)
+  {
+    // Remove the fields of the previous row
+    startRecord(record);
+    
+    // Find the end of the row
+    final int rowEnd = findRowEnd(text, start, end, rowDelims);
+    if ((rowEnd == end) && (!atEnd))
+    {
+      return -1;
+    }
+    
+    // Match the row.  The matcher is only given new text when the
+    // buffer changes; otherwise, setting the region resets it.
+    if (text != matcherText)
+    {
+      matcher.reset(text);
+      matcherText = text;
+    }
+    
+    matcher.region(start, rowEnd);
+    if (!matcher.find())
+    {
+      return rowEnd;
+    }
+    
+    // Add a field for each group; a group that did not match is empty
+    for (int group = nFirstGroup; (group <= nLastGroup) && (!record.isFull()); ++group)
+    {
+      final int nStart = matcher.start(group);
+      if (nStart >= 0)
+      {
+        record.append(text, nStart, matcher.end(group));
+      }
+      
+      record.endField(bTrimFields);
+    }
+    
+    return rowEnd;
+  }
+  
+  
+  /**
+   * Returns false, because the expression works on characters,
+   * so the text must be decoded first.
+   * 
+   * @return false
+   */
+  boolean hasAsciiDelimiters()
+  {
+    return false;
+  }
+}
@@ -0,0 +1,612 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a class for a compiled pattern.  The generated class
+ * is a subclass of RowRenderer whose render() method applies the
+ * pattern to a row with straight-line code: one append per literal
+ * and field reference, one call per function call (a direct call
+ * to CaseTransform for $lower, $upper and $title), if-blocks as
+ * branches and switch blocks as a tableswitch, so the JIT compiler
+ * can inline the whole row.  If a class cannot be generated or
+ * loaded, generate() returns null and the caller should interpret
+ * the pattern instead.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class RendererGenerator
+{
+  /**
+   * The internal name of the superclass of the generated classes.
+   */
+  private static final String SUPER_NAME = "io/miti/textmangler/RowRenderer";
+  
+  /**
+   * The prefix of the internal name of the generated classes.
+   */
+  private static final String CLASS_NAME = "io/miti/textmangler/GeneratedRenderer";
+  
+  /**
+   * The internal name of the Appendable interface.
+   */
+  private static final String APPENDABLE = "java/lang/Appendable";
+  
+  /**
+   * The descriptor of the render() method.
+   */
+  private static final String RENDER_DESC = "(Ljava/util/List;JLjava/lang/Appendable;)V";
+  
+  /**
+   * Local variable holding the list of fields.
+   */
+  private static final int LOCAL_FIELDS = 1;
+  
+  /**
+   * Local variable holding the row number, a long, which takes
+   * two slots.
+   */
+  private static final int LOCAL_ROW = 2;
+  
+  /**
+   * Local variable holding the Appendable.
+   */
+  private static final int LOCAL_OUT = 4;
+  
+  /**
+   * Marks a branch instruction, rather than a tableswitch target,
+   * in the list of branches to an instruction.
+   */
+  private static final int BRANCH = Integer.MIN_VALUE;
+  
+  /**
+   * The number of classes generated so far, used to name them.
+   */
+  private static int classCount = 0;
+  
+  /**
+   * The class file being written.
+   */
+  private final ClassFileWriter writer = new ClassFileWriter();
+  
+  /**
+   * The conditions referenced by the generated code.
+   */
+  private final List<Condition> conditions = new ArrayList<Condition>(10);
+  
+  /**
+   * The switch tables referenced by the generated code.
+   */
+  private final List<SwitchTable> switches = new ArrayList<SwitchTable>(4);
+  
+  /**
+   * The function calls referenced by the generated code.
+   */
+  private final List<Segment> calls = new ArrayList<Segment>(10);
+  
+  /**
+   * The line separator string.
+   */
+  private final String lineSeparator;
+  
+  /**
+   * Literal text waiting to be appended.  Adjacent literals are
+   * joined so they are appended with a single call.
+   */
+  private final StringBuilder pendingText = new StringBuilder(100);
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param lineSep the line separator string
+   */
+  private RendererGenerator(final String lineSep)
+  {
+    super();
+    lineSeparator = lineSep;
+  }
+  
+  
+  /**
+   * Generate and load a class that applies the pattern to a row.
+   * 
+   * @param pattern the compiled pattern
+   * @param lineSep the line separator string
+   * @return an instance of the generated class, or null if the
+   *         class could not be generated
+   */
+  static RowRenderer generate(final CompiledPattern pattern,
+                              final String lineSep)
+  {
+    try
+    {
+      // Write the class file
+      RendererGenerator generator = new RendererGenerator(lineSep);
+      final String className = nextClassName();
+      final byte[] classFile = generator.writeClass(pattern, className);
+      
+      // Load the class and instantiate it
+      GeneratedClassLoader loader = new GeneratedClassLoader();
+      Class<?> cls = loader.define(className.replace('/', '.'), classFile);
+      RowRenderer renderer =
+        (RowRenderer) cls.getDeclaredConstructor().newInstance();
+      renderer.setConditions(generator.conditions.toArray(
+                    new Condition[generator.conditions.size()]));
+      renderer.setSwitches(generator.switches.toArray(
+                    new SwitchTable[generator.switches.size()]));
+      renderer.setCalls(generator.calls.toArray(
+                    new Segment[generator.calls.size()]));
+      return renderer;
+    }
+    catch (IOException ioe)
+    {
+      // The pattern is too large for a class file
+      return null;
+    }
+    catch (LinkageError le)
+    {
+      // The class failed to load or verify
+      return null;
+    }
+    catch (Exception e)
+    {
+      // The class could not be instantiated (e.g., a security manager
+      // does not allow creating class loaders)
+      return null;
+    }
+  }
+  
+  
+  /**
+   * Return a new name for a generated class.
+   * 
+   * @return the internal name of the class
+   */
+  private static synchronized String nextClassName()
+  {
+    return (CLASS_NAME + Integer.toString(++classCount));
+  }
+  
+  
+  /**
+   * Write the class file for the pattern.
+   * 
+   * @param pattern the compiled pattern
+   * @param className the internal name of the class
+   * @return the bytes of the class file
+   * @throws IOException if the pattern is too large for a class file
+   */
+  private byte[] writeClass(final CompiledPattern pattern,
+                            final String className)
+    throws IOException
+  {
+    // The constructor just calls the superclass constructor
+    writer.local(ClassFileWriter.ALOAD, 0);
+    writer.poolOp(ClassFileWriter.INVOKESPECIAL,
+                  writer.methodRef(SUPER_NAME, "<init>", "()V", false));
+    writer.op(ClassFileWriter.RETURN);
+    writer.endMethod("<init>", "()V", 1, 1);
+    
+    // The render method
+    writeRender(pattern.getProgram());
+    writer.endMethod("render", RENDER_DESC, 6, 5);
+    
+    return writer.toByteArray(className, SUPER_NAME);
+  }
+  
+  
+  /**
+   * Write the body of the render() method.  Each test and jump in
+   * the compiled pattern becomes a branch instruction.
+   * 
+   * @param program the instructions of the compiled pattern
+   * @throws IOException if the pattern is too large for a class file
+   */
+  private void writeRender(final Instruction[] program)
+    throws IOException
+  {
+    // For each instruction index, the branches that jump to it, as
+    // pairs of the position of the instruction in the code and either
+    // BRANCH or the tableswitch value.  All jumps in a compiled pattern
+    // go forward.
+    final int nSize = program.length;
+    List<List<int[]>> branches = new ArrayList<List<int[]>>(nSize + 1);
+    for (int i = 0; i <= nSize; ++i)
+    {
+      branches.add(null);
+    }
+    
+    for (int i = 0; i < nSize; ++i)
+    {
+      // Point any branches to this instruction here
+      bindBranches(branches.get(i));
+      
+      final Instruction instruction = program[i];
+      switch (instruction.getOpcode())
+      {
+        case Instruction.OP_RAW:
+        {
+          // Output the line as-is
+          pendingText.append(instruction.getText()).append(lineSeparator);
+          break;
+        }
+        
+        case Instruction.OP_IF:
+        {
+          // if (!test(condition)) goto target
+          flushText();
+          writeTest(instruction.getCondition());
+          addBranch(branches, instruction.getTarget(),
+                    writer.branch(ClassFileWriter.IFEQ), BRANCH);
+          break;
+        }
+        
+        case Instruction.OP_JUMP:
+        {
+          // goto target
+          flushText();
+          addBranch(branches, instruction.getTarget(),
+                    writer.branch(ClassFileWriter.GOTO), BRANCH);
+          break;
+        }
+        
+        case Instruction.OP_SWITCH:
+        {
+          flushText();
+          writeSwitch(instruction.getSwitchTable(), branches);
+          break;
+        }
+        
+        default:
+        {
+          // Output the line
+          writeLine(instruction.getSegments());
+          break;
+        }
+      }
+      
+      // Stop if the method is getting too large
+      if (writer.getCodeLength() > ClassFileWriter.MAX_CODE_LENGTH)
+      {
+        throw (new IOException("The pattern is too large"));
+      }
+    }
+    
+    bindBranches(branches.get(nSize));
+    flushText();
+    writer.op(ClassFileWriter.RETURN);
+  }
+  
+  
+  /**
+   * Write the code for a $switch statement: a tableswitch on the
+   * case number returned by select().
+   * 
+   * @param table the switch table
+   * @param branches the branches to each instruction index
+   * @throws IOException if the constant pool is full
+   */
+  private void writeSwitch(final SwitchTable table,
+                           final List<List<int[]>> branches)
+    throws IOException
+  {
+    // With no cases, always go to the default
+    final int nCases = table.getCaseCount();
+    if (nCases < 1)
+    {
+      addBranch(branches, table.getTarget(-1),
+                writer.branch(ClassFileWriter.GOTO), BRANCH);
+      return;
+    }
+    
+    // select(index, fields)
+    writer.local(ClassFileWriter.ALOAD, 0);
+    writer.pushInt(switches.size());
+    writer.local(ClassFileWriter.ALOAD, LOCAL_FIELDS);
+    writer.poolOp(ClassFileWriter.INVOKEVIRTUAL,
+                  writer.methodRef(SUPER_NAME, "select", "(ILjava/util/List;)I", false));
+    switches.add(table);
+    
+    // Jump to the case; -1 is out of range, so it goes to the default
+    final int position = writer.tableSwitch(nCases);
+    addBranch(branches, table.getTarget(-1), position, -1);
+    for (int i = 0; i < nCases; ++i)
+    {
+      addBranch(branches, table.getTarget(i), position, i);
+    }
+  }
+  
+  
+  /**
+   * Record a branch to an instruction.
+   * 
+   * @param branches the branches to each instruction index
+   * @param target the index of the target instruction
+   * @param position the position of the branch in the code
+   * @param value BRANCH, or the tableswitch value that jumps to target
+   */
+  private static void addBranch(final List<List<int[]>> branches,
+                                final int target, final int position,
+                                final int value)
+  {
+    List<int[]> list = branches.get(target);
+    if (list == null)
+    {
+      list = new ArrayList<int[]>(2);
+      branches.set(target, list);
+    }
+    
+    list.add(new int[] {position, value});
+  }
+  
+  
+  /**
+   * Point a list of branches at the current position in the code.
+   * 
+   * @param list the branches, or null if there are none
+   * @throws IOException if the text is too long for a class file
+   */
+  private void bindBranches(final List<int[]> list) throws IOException
+  {
+    if (list == null)
+    {
+      return;
+    }
+    
+    // Any pending text comes before the branch target
+    flushText();
+    for (int[] branch : list)
+    {
+      if (branch[1] == BRANCH)
+      {
+        writer.bindBranch(branch[0]);
+      }
+      else
+      {
+        writer.bindSwitch(branch[0], branch[1]);
+      }
+    }
+  }
+  
+  
+  /**
+   * Write the code for a line of text, followed by the line separator.
+   * Literal text is not written until the next call to flushText().
+   * 
+   * @param segments the tokenized pattern line
+   * @throws IOException if the pattern is too large for a class file
+   */
+  private void writeLine(final Segment[] segments) throws IOException
+  {
+    for (Segment segment : segments)
+    {
+      switch (segment.getType())
+      {
+        case Segment.FIELD:
+        {
+          // appendField(fields, index, tag, out)
+          flushText();
+          writer.local(ClassFileWriter.ALOAD, LOCAL_FIELDS);
+          writer.pushInt(segment.getFieldIndex());
+          writer.pushString(segment.getText());
+          writer.local(ClassFileWriter.ALOAD, LOCAL_OUT);
+          writer.poolOp(ClassFileWriter.INVOKESTATIC,
+              writer.methodRef(SUPER_NAME, "appendField",
+                "(Ljava/util/List;ILjava/lang/String;Ljava/lang/Appendable;)V",
+                false));
+          break;
+        }
+        
+        case Segment.CALL:
+        {
+          // Call CaseTransform directly for $lower, $upper and $title
+          if (writeCaseCall(segment))
+          {
+            break;
+          }
+          
+          // this.appendCall(index, fields, row, out)
+          flushText();
+          writer.local(ClassFileWriter.ALOAD, 0);
+          writer.pushInt(calls.size());
+          writer.local(ClassFileWriter.ALOAD, LOCAL_FIELDS);
+          writer.local(ClassFileWriter.LLOAD, LOCAL_ROW);
+          writer.local(ClassFileWriter.ALOAD, LOCAL_OUT);
+          writer.poolOp(ClassFileWriter.INVOKEVIRTUAL,
+              writer.methodRef(SUPER_NAME, "appendCall",
+                "(ILjava/util/List;JLjava/lang/Appendable;)V", false));
+          calls.add(segment);
+          break;
+        }
+        
+        case Segment.ROW:
+        {
+          // appendRow(row, out)
+          flushText();
+          writer.local(ClassFileWriter.LLOAD, LOCAL_ROW);
+          writer.local(ClassFileWriter.ALOAD, LOCAL_OUT);
+          writer.poolOp(ClassFileWriter.INVOKESTATIC,
+              writer.methodRef(SUPER_NAME, "appendRow",
+                               "(JLjava/lang/Appendable;)V", false));
+          break;
+        }
+        
+        default:
+        {
+          pendingText.append(segment.getText());
+          break;
+        }
+      }
+    }
+    
+    pendingText.append(lineSeparator);
+  }
+  
+  
+  /**
+   * Write the code for a call to $lower, $upper or $title whose
+   * argument is a field or a literal.  A field is converted with a
+   * static call to CaseTransform, through the helper in RowRenderer,
+   * and a literal is converted now and added to the pending text.
+   * 
+   * @param segment the function call segment
+   * @return whether code was written for the call
+   * @throws IOException if the constant pool is full
+   */
+  private boolean writeCaseCall(final Segment segment) throws IOException
+  {
+    // Find the name of the helper method for the function
+    final TextFunction function = segment.getFunction();
+    final String method;
+    if (function == FunctionRegistry.LOWER)
+    {
+      method = "appendLower";
+    }
+    else if (function == FunctionRegistry.UPPER)
+    {
+      method = "appendUpper";
+    }
+    else if (function == FunctionRegistry.TITLE)
+    {
+      method = "appendTitle";
+    }
+    else
+    {
+      return false;
+    }
+    
+    final Segment arg = segment.getArguments()[0];
+    switch (arg.getType())
+    {
+      case Segment.FIELD:
+      {
+        // appendUpper(fields, index, tag, out)
+        flushText();
+        writer.local(ClassFileWriter.ALOAD, LOCAL_FIELDS);
+        writer.pushInt(arg.getFieldIndex());
+        writer.pushString(segment.getText());
+        writer.local(ClassFileWriter.ALOAD, LOCAL_OUT);
+        writer.poolOp(ClassFileWriter.INVOKESTATIC,
+            writer.methodRef(SUPER_NAME, method,
+              "(Ljava/util/List;ILjava/lang/String;Ljava/lang/Appendable;)V",
+              false));
+        return true;
+      }
+      
+      case Segment.LITERAL:
+      {
+        // The result is the same for every row
+        function.apply(new CharSequence[] {arg.getValue()}, pendingText);
+        return true;
+      }
+      
+      default:
+        return false;
+    }
+  }
+  
+  
+  /**
+   * Write the code to evaluate a condition, leaving the result
+   * on the stack.
+   * 
+   * @param condition the condition to evaluate
+   * @throws IOException if the constant pool is full
+   */
+  private void writeTest(final Condition condition) throws IOException
+  {
+    // test(index, fields, row)
+    writer.local(ClassFileWriter.ALOAD, 0);
+    writer.pushInt(conditions.size());
+    writer.local(ClassFileWriter.ALOAD, LOCAL_FIELDS);
+    writer.local(ClassFileWriter.LLOAD, LOCAL_ROW);
+    writer.poolOp(ClassFileWriter.INVOKEVIRTUAL,
+                  writer.methodRef(SUPER_NAME, "test", "(ILjava/util/List;J)Z", false));
+    conditions.add(condition);
+  }
+  
+  
+  /**
+   * Write the code to append any pending literal text.
+   * 
+   * @throws IOException if the text is too long for a class file
+   */
+  private void flushText() throws IOException
+  {
+    if (pendingText.length() < 1)
+    {
+      return;
+    }
+    
+    // out.append(text)
+    writer.local(ClassFileWriter.ALOAD, LOCAL_OUT);
+    writer.pushString(pendingText.toString());
+    writer.invokeInterface(APPENDABLE, "append",
+             "(Ljava/lang/CharSequence;)Ljava/lang/Appendable;", 1);
+    writer.op(ClassFileWriter.POP);
+    pendingText.setLength(0);
+  }
+  
+  
+  /**
+   * The class loader for generated classes.  Each generated class
+   * gets its own loader, so the class can be unloaded once the
+   * pattern is no longer used.
+   */
+  private static final class GeneratedClassLoader extends ClassLoader
+  {
+    /**
+     * Default constructor.
+     */
+    GeneratedClassLoader()
+    {
+      super(RowRenderer.class.getClassLoader());
+    }
+    
+    
+    /**
+     * Define a class from its class file.
+     * 
+     * @param name the binary name of the class
+     * @param classFile the bytes of the class file
+     * @return the class
+     */
+    Class<?> define(final String name, final byte[] classFile)
+    {
+      return defineClass(name, classFile, 0, classFile.length);
+    }
+  }
+}
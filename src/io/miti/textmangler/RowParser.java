@@ -0,0 +1,175 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.BitSet;
+
+/**
+ * The superclass of the parsers that split a row of text into
+ * fields, such as CSVReader and FixedWidthParser.  A record reader
+ * (see CSVRecordReader) finds the text and the parser finds the
+ * fields in it.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public abstract class RowParser
+{
+  /**
+   * Which fields to keep, or null to keep every field.
+   */
+  private boolean[] projection = null;
+  
+  /**
+   * The index of the last field to read from each row.
+   */
+  private int lastField = Integer.MAX_VALUE;
+  
+  
+  /**
+   * Default constructor.
+   */
+  protected RowParser()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Parses one record, starting at the specified index, into a
+   * record.  The record ends at the first row delimiter that is
+   * not part of a field, or at the end of the text.
+   * 
+   * @param text the text to parse
+   * @param start the index of the start of the record
+   * @param end the index of the end of the available text
+   * @param atEnd whether there is no more text after end
+   * @param rowDelims the row delimiters
+   * @param record the record to hold the fields
+   * @return the index of the row delimiter that ends the record,
+   *         or -1 if the record reached end and atEnd is false,
+   *         so more text is needed to parse it
+   */
+  abstract int parseRecord(final CharSequence text, final int start,
+                           final int end, final boolean atEnd,
+                           final DelimiterSet rowDelims,
+                           final CSVRecord record);
+  
+  
+  /**
+   * Returns whether the fields can be found in UTF-8 text before it
+   * is decoded, treating each byte as a char (see Utf8RecordReader).
+   * 
+   * @return whether the parser can work on undecoded UTF-8
+   */
+  abstract boolean hasAsciiDelimiters();
+  
+  
+  /**
+   * Set which fields to read from each row, such as the fields a
+   * compiled pattern refers to (see CompiledPattern.getReferencedFields()).
+   * The other fields are recorded as empty, and fields after the
+   * highest one are not recorded at all.
+   * 
+   * @param fields the set of zero-based field indexes, or null to
+   *               read every field
+   */
+  public final void setReferencedFields(final BitSet fields)
+  {
+    if (fields == null)
+    {
+      projection = null;
+      lastField = Integer.MAX_VALUE;
+      return;
+    }
+    
+    // Always record the first field, so an empty row can be detected
+    lastField = Math.max(fields.length() - 1, 0);
+    projection = new boolean[lastField + 1];
+    for (int i = fields.nextSetBit(0); i >= 0; i = fields.nextSetBit(i + 1))
+    {
+      projection[i] = true;
+    }
+  }
+  
+  
+  /**
+   * Returns the index of the first row delimiter at or after start,
+   * or end if there is none.
+   * 
+   * @param text the text to search
+   * @param start the index of the start of the row
+   * @param end the index of the end of the available text
+   * @param rowDelims the row delimiters
+   * @return the index of the end of the row
+   */
+  static int findRowEnd(final CharSequence text, final int start,
+                        final int end, final DelimiterSet rowDelims)
+  {
+    int i = start;
+    while ((i < end) && (!rowDelims.contains(text.charAt(i))))
+    {
+      ++i;
+    }
+    
+    return i;
+  }
+  
+  
+  /**
+   * Returns whether a field is read from each row (see
+   * setReferencedFields()).
+   * 
+   * @param index the zero-based index of the field
+   * @return whether the field is read
+   */
+  final boolean isReferenced(final int index)
+  {
+    if (projection == null)
+    {
+      return true;
+    }
+    
+    return ((index < projection.length) && (projection[index]));
+  }
+  
+  
+  /**
+   * Remove the fields of the previous row from the record, and set
+   * which fields of the next row it keeps.
+   * 
+   * @param record the record to hold the fields
+   */
+  final void startRecord(final CSVRecord record)
+  {
+    record.setProjection(projection, lastField);
+    record.reset();
+  }
+}
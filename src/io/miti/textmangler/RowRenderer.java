@@ -0,0 +1,305 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The superclass of the classes generated for compiled patterns
+ * by RendererGenerator.  A generated subclass applies the whole
+ * pattern to a row with straight-line code, calling the helper
+ * methods in this class for field references, function calls,
+ * conditions and switch statements.  Calls to $lower, $upper and
+ * $title on a field call CaseTransform directly.  The class is
+ * public only so that generated classes, which are defined by
+ * their own class loader, can extend it.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public abstract class RowRenderer
+{
+  /**
+   * The compiled conditions, in the order used by the generated code.
+   */
+  private Condition[] conditions = null;
+  
+  /**
+   * The switch tables, in the order used by the generated code.
+   */
+  private SwitchTable[] switches = null;
+  
+  /**
+   * The function calls, in the order used by the generated code.
+   */
+  private Segment[] calls = null;
+  
+  
+  /**
+   * Default constructor.
+   */
+  protected RowRenderer()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Apply the pattern to a row, writing the output to out.
+   * 
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  public abstract void render(final List<String> fields,
+                              final long currentRow,
+                              final Appendable out)
+    throws IOException;
+  
+  
+  /**
+   * Save the conditions referenced by the generated code.
+   * 
+   * @param ifConditions the compiled conditions
+   */
+  final void setConditions(final Condition[] ifConditions)
+  {
+    conditions = ifConditions;
+  }
+  
+  
+  /**
+   * Save the switch tables referenced by the generated code.
+   * 
+   * @param switchTables the switch tables
+   */
+  final void setSwitches(final SwitchTable[] switchTables)
+  {
+    switches = switchTables;
+  }
+  
+  
+  /**
+   * Save the function calls referenced by the generated code.
+   * 
+   * @param functionCalls the function call segments
+   */
+  final void setCalls(final Segment[] functionCalls)
+  {
+    calls = functionCalls;
+  }
+  
+  
+  /**
+   * Return the number of the case of a $switch statement that
+   * matches the row.
+   * 
+   * @param index the index of the switch table
+   * @param fields the list of fields in the row
+   * @return the case number, or -1 for the default case
+   */
+  protected final int select(final int index, final List<String> fields)
+  {
+    return switches[index].select(fields);
+  }
+  
+  
+  /**
+   * Evaluate a condition against the row.
+   * 
+   * @param index the index of the condition
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @return whether the condition is true
+   */
+  protected final boolean test(final int index,
+                               final List<String> fields,
+                               final long currentRow)
+  {
+    return conditions[index].evaluate(fields, currentRow);
+  }
+  
+  
+  /**
+   * Append a field, or the tag if the row does not have the field.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @param tag the text of the field reference
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected static void appendField(final List<String> fields,
+                                    final int index,
+                                    final String tag,
+                                    final Appendable out)
+    throws IOException
+  {
+    if (index < fields.size())
+    {
+      CSVRecord.appendField(fields, index, out);
+    }
+    else
+    {
+      out.append(tag);
+    }
+  }
+  
+  
+  /**
+   * Append a field in lowercase, or the text of the call if the
+   * row does not have the field.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @param tag the text of the function call
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected static void appendLower(final List<String> fields,
+                                    final int index,
+                                    final String tag,
+                                    final Appendable out)
+    throws IOException
+  {
+    if (index < fields.size())
+    {
+      CaseTransform.appendLower(getField(fields, index), out);
+    }
+    else
+    {
+      out.append(tag);
+    }
+  }
+  
+  
+  /**
+   * Append a field in uppercase, or the text of the call if the
+   * row does not have the field.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @param tag the text of the function call
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected static void appendUpper(final List<String> fields,
+                                    final int index,
+                                    final String tag,
+                                    final Appendable out)
+    throws IOException
+  {
+    if (index < fields.size())
+    {
+      CaseTransform.appendUpper(getField(fields, index), out);
+    }
+    else
+    {
+      out.append(tag);
+    }
+  }
+  
+  
+  /**
+   * Append a field in titlecase, or the text of the call if the
+   * row does not have the field.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @param tag the text of the function call
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected static void appendTitle(final List<String> fields,
+                                    final int index,
+                                    final String tag,
+                                    final Appendable out)
+    throws IOException
+  {
+    if (index < fields.size())
+    {
+      CaseTransform.appendTitle(getField(fields, index), out);
+    }
+    else
+    {
+      out.append(tag);
+    }
+  }
+  
+  
+  /**
+   * Return a field, using a view of the field if the row is a record.
+   * 
+   * @param fields the list of fields in the row
+   * @param index the zero-based index of the field
+   * @return the field
+   */
+  private static CharSequence getField(final List<String> fields,
+                                       final int index)
+  {
+    return ((fields instanceof CSVRecord)
+            ? ((CSVRecord) fields).getField(index) : fields.get(index));
+  }
+  
+  
+  /**
+   * Append the result of a function call.
+   * 
+   * @param index the index of the function call
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected final void appendCall(final int index,
+                                  final List<String> fields,
+                                  final long currentRow,
+                                  final Appendable out)
+    throws IOException
+  {
+    calls[index].render(fields, currentRow, out);
+  }
+  
+  
+  /**
+   * Append the row number.
+   * 
+   * @param currentRow the current row number
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  protected static void appendRow(final long currentRow, final Appendable out)
+    throws IOException
+  {
+    Utility.appendNumber(currentRow, out);
+  }
+}
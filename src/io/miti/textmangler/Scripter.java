@@ -28,6 +28,7 @@
 
 package io.miti.textmangler;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -56,19 +57,26 @@ public final class Scripter
   /**
    * The current row number.
    */
-  private int nCurrentRow = 0;
+  private long nCurrentRow = 0L;
   
   /**
-   * The list of valid functions.
+   * The compiled pattern to apply to each row.
    */
-  private static final String[] asFunctions = {"$lower(", "$upper(", "$title("};
+  private CompiledPattern compiledPattern = null;
   
   /**
-   * The corresponding function values.
+   * The generated class for the compiled pattern, or null if the
+   * pattern is interpreted.
    */
-  private static final int[] aiFunctionRefs = {0, 1, 2};
+  private RowRenderer renderer = null;
   
+  /**
+   * The buffer for the output of a row, when the output is not
+   * written to a StringBuilder.
+   */
+  private final StringBuilder rowBuffer = new StringBuilder(500);
   
+
   /**
    * Default constructor.
    */
@@ -88,7 +96,7 @@ public final class Scripter
    * @param currentRow the current row number
    */
   public Scripter(final String startTag, final String endTag,
-                  final String lineSep, final int currentRow)
+                  final String lineSep, final long currentRow)
   {
     super();
     
@@ -97,16 +105,63 @@ public final class Scripter
     sSuffix = endTag;
     lineSeparator = lineSep;
     nCurrentRow = currentRow;
+  }
+  
+  
+  /**
+   * Constructor taking a compiled pattern.  The same object can
+   * then be used to apply the pattern to every row of input.
+   * 
+   * @param pattern the compiled pattern
+   * @param lineSep the line separator string
+   */
+  public Scripter(final CompiledPattern pattern, final String lineSep)
+  {
+    super();
     
-    // Verify the two arrays are the same size
-    if (asFunctions.length != aiFunctionRefs.length)
+    // Save the arguments
+    compiledPattern = pattern;
+    sPrefix = pattern.getPrefix();
+    sSuffix = pattern.getSuffix();
+    lineSeparator = lineSep;
+  }
+  
+  
+  /**
+   * Constructor taking a compiled pattern, and whether to generate
+   * a class for the pattern.  A generated class applies the pattern
+   * with straight-line code, which can be faster for large inputs.
+   * If the class cannot be generated, the pattern is interpreted,
+   * as it is by the other constructors.
+   * 
+   * @param pattern the compiled pattern
+   * @param lineSep the line separator string
+   * @param generateCode whether to generate a class for the pattern
+   */
+  public Scripter(final CompiledPattern pattern, final String lineSep,
+                  final boolean generateCode)
+  {
+    this(pattern, lineSep);
+    
+    // Generate the class, if requested
+    if (generateCode)
     {
-      throw (new RuntimeException(
-          "The number of functions does not match the number of function references"));
+      renderer = RendererGenerator.generate(pattern, lineSep);
     }
   }
   
   
+  /**
+   * Returns whether the pattern is applied by a generated class.
+   * 
+   * @return whether a class was generated for the pattern
+   */
+  public boolean isUsingGeneratedCode()
+  {
+    return (renderer != null);
+  }
+  
+  
   /**
    * Process the string by replacing tags with whatever the main
    * application wants to replace them with.
@@ -126,841 +181,241 @@ public final class Scripter
       return null;
     }
     
-    // This will hold the processed contents of the input file
-    StringBuilder strOut = new StringBuilder(500);
-    
-    // This boolean records whether to process the current line of input
-    // (occasionally set to false when we're inside an if-block that
-    // should not be executed)
-    boolean bProcessCode = true;
-    
-    // Record whether an if-block has been executed
-    boolean bIfBlockExecuted = false;
-    
-    // Iterate over the rows
-    for (String patternRow : pattern)
-    {
-      // Check the current row for a match for an if-type statement
-      String trimmedRow = patternRow.trim();
-      
-      // Check for an empty string or with only whitespace
-      if ((patternRow.length() < 1))
-      {
-        // The line is empty, so add a separator, and continue
-        strOut.append(lineSeparator);
-        continue;
-      }
-      else if (trimmedRow.length() < 1)
-      {
-        // The row is only whitespace, so add the original row and a line
-        // separator, and then continue
-        strOut.append(patternRow).append(lineSeparator);
-        continue;
-      }
-      
-      // Check for lines starting with certain values
-      if (trimmedRow.startsWith("$//"))
-      {
-        // The line starts with a comment, so skip it
-        continue;
-      }
-      else if (trimmedRow.startsWith("$if "))
-      {
-        // We're entering an if block, so see if the line is true
-        bProcessCode = handleIfStatement(trimmedRow.substring(4).trim(), strInput);
-        
-        // Record the result of the if statement
-        bIfBlockExecuted = bProcessCode;
-      }
-      else if (trimmedRow.startsWith("$else if ") || (trimmedRow.startsWith("$elseif ")))
-      {
-        // We're entering an else-if block
-        if (!bIfBlockExecuted)
-        {
-          // Calculate how many characters to skip to get to the condition to test
-          final int nSkipValue = 8 + ((trimmedRow.charAt(5) == ' ') ? 1 : 0);
-          
-          // This if-block has not been executed, so check if this
-          // if statement is true
-          bProcessCode = handleIfStatement(trimmedRow.substring(nSkipValue).trim(),
-                                           strInput);
-          
-          // Save the return value
-          bIfBlockExecuted = bProcessCode;
-        }
-        else
-        {
-          // We don't want to process the code in this block
-          bProcessCode = false;
-        }
-      }
-      else if (trimmedRow.equals("$else"))
-      {
-        // We're entering an else-if block
-        if (!bIfBlockExecuted)
-        {
-          // This if-block has not been executed, so execute it now
-          bProcessCode = true;
-          bIfBlockExecuted = bProcessCode;
-        }
-        else
-        {
-          // We don't want to process the code in this block
-          bProcessCode = false;
-        }
-      }
-      else if (trimmedRow.startsWith("$end"))
-      {
-        // We're at the end of an if-block, so process the rest of the code, and
-        // jump to the next pattern line
-        bProcessCode = true;
-        continue;
-      }
-      else if (bProcessCode)
-      {
-        // We should execute this line, so parse it and save the output
-        strOut.append(parseLine(patternRow, strInput));
-        strOut.append(lineSeparator);
-      }
-    }
-    
-    // If the string ends with a line separator, remove it
-    final int nOutLen = strOut.length();
-    final int nSepLen = lineSeparator.length();
-    if (nOutLen >= nSepLen)
+    // Compile the pattern and run it
+    return executeToString(new CompiledPattern(pattern, sPrefix, sSuffix), strInput);
+  }
+  
+  
+  /**
+   * Apply the compiled pattern passed to the constructor to
+   * a row of input.
+   * 
+   * @param strInput the list of fields in the row
+   * @param currentRow the current row number
+   * @return the processed string
+   */
+  public String processCode(final List<String> strInput,
+                            final long currentRow)
+  {
+    // Check the input
+    if ((strInput == null) || (strInput.size() < 1) ||
+        (compiledPattern == null))
     {
-      // See if the string ends with a line separator
-      String lastString = strOut.substring(nOutLen - nSepLen);
-      if (lastString.equals(lineSeparator))
-      {
-        // It does, so remove the trailing line separator
-        strOut.delete(nOutLen - nSepLen, nOutLen);
-      }
+      // Nothing to do, so return null
+      return null;
     }
     
-    // Return the generated string
-    return strOut.toString();
+    // Save the row number and run the pattern; a pattern with
+    // only comments produces an empty string, as in processCode()
+    nCurrentRow = currentRow;
+    return executeToString(compiledPattern, strInput);
   }
   
   
   /**
-   * Parse the text of an if-control statement.
+   * Apply the compiled pattern passed to the constructor to a
+   * row of input, writing the output directly to out.  Every
+   * line of output, including the last, is followed by the line
+   * separator.  Nothing is written if the row is empty, or if its
+   * only output is an empty line, since the String version returns
+   * an empty string for it and the row is dropped.
    * 
-   * @param line the line after the if-statement
-   * @param strInput the list of input arguments
-   * @return whether this block evaluates to true
+   * @param strInput the list of fields in the row
+   * @param currentRow the current row number
+   * @param out where to write the output (e.g., a StringBuilder or Writer)
+   * @throws IOException if out throws an exception
    */
-  private boolean handleIfStatement(final String line,
-                                    final List<String> strInput)
+  public void processCode(final List<String> strInput,
+                          final long currentRow,
+                          final Appendable out)
+    throws IOException
   {
-    // This will hold our return value
-    boolean result = false;
-    
-    // Save the length of the line
-    final int nLineLen = line.length();
-    if (nLineLen < 2)
+    // Check the input
+    if ((strInput == null) || (strInput.size() < 1) ||
+        (compiledPattern == null))
     {
-      return false;
+      // Nothing to do
+      return;
     }
     
-    // Need to evaluate line.  Check if it starts with $Row
-    if (line.startsWith(sPrefix + "Row"))
-    {
-      // Jump past the Row variable
-      int index = 3 + sPrefix.length() + sSuffix.length();
-      
-      // Find the first non-space character
-      while ((index < nLineLen) && (line.charAt(index) == ' '))
-      {
-        // Advance to the next character
-        ++index;
-      }
-      
-      // See if we hit the end
-      if (index >= nLineLen)
-      {
-        return false;
-      }
-      
-      // Get the operation character(s) - everything before a number
-      StringBuilder op = new StringBuilder(5);
-      while (index < nLineLen)
-      {
-        // The character to look at
-        char ch = line.charAt(index);
-        
-        // Abort if we hit a space or number
-        if ((ch == ' ') || (Character.isDigit(ch)))
-        {
-          // We hit a space or a number, so abort
-          break;
-        }
-        
-        // Append the character
-        op.append(ch);
-        
-        // Advance to the next character
-        ++index;
-      }
-      
-      // Find the next non-space character
-      while ((index < nLineLen) && (line.charAt(index) == ' '))
-      {
-        // Advance to the next character
-        ++index;
-      }
-      
-      // Now get the number to compare the row to
-      StringBuilder destDigit = new StringBuilder(5);
-      while (index < nLineLen)
-      {
-        // The character to look at
-        char ch = line.charAt(index);
-        
-        // Abort if we hit a space or non-number
-        if ((ch == ' ') || (!Character.isDigit(ch)))
-        {
-          // We hit a space or a non-number, so abort
-          break;
-        }
-        
-        // Append the character
-        destDigit.append(ch);
-        
-        // Advance to the next character
-        ++index;
-      }
-      
-      // We have everything we need, so get the comparison result
-      result = compareRowInteger(op.toString(), destDigit.toString());
-      
-      // System.out.println("The result of " + line + " is " + Boolean.toString(result));
-    }
-    else if (line.startsWith(sPrefix))
+    // Save the row number
+    nCurrentRow = currentRow;
+    
+    // Run the pattern, and remove the output if it's only an empty line
+    if (out instanceof StringBuilder)
     {
-      // Handle the line starting with a prefix for a field reference
-      
-      // Get the index of the start of the field reference
-      int index = sPrefix.length();
-      
-      // Find the index of the closing tag
-      int nEndTagStartIndex = index;
-      if (sSuffix.length() > 0)
-      {
-        // Find the start of the suffix tag
-        nEndTagStartIndex = line.indexOf(sSuffix, index);
-        if (nEndTagStartIndex < 0)
-        {
-          return false;
-        }
-      }
-      else
-      {
-        // There is no closing tag, so grab everything that's an integer
-        while ((nEndTagStartIndex < nLineLen) &&
-               (Character.isDigit(line.charAt(nEndTagStartIndex))))
-        {
-          ++nEndTagStartIndex;
-        }
-      }
-      
-      // Grab the field number
-      final String sField1Number = line.substring(index, nEndTagStartIndex);
-      final int nField1Number = getFieldNumber(sField1Number);
-      if ((nField1Number < 1) || (nField1Number > strInput.size()))
-      {
-        return false;
-      }
-      
-      // Save the field referenced by the field number
-      final String sField1 = strInput.get(nField1Number - 1);
-      
-      // Update index to point after the first field's suffix
-      // (before the comparison operator)
-      index = nEndTagStartIndex + sSuffix.length();
-      
-      // Find the index of the string after the operator
-      final int nQuoteIndex = line.indexOf('"', index);
-      final int nPrefixStartIndex = line.indexOf(sPrefix, index);
-      
-      // Find the lesser of the two values, whichever is positive
-      int nField2StartIndex = 0;
-      int nOperatorEndIndex = 0;
-      String sField2 = null;
-      if ((nQuoteIndex < 0) && (nPrefixStartIndex < 0))
-      {
-        // Neither was found, so return
-        return false;
-      }
-      else if (nQuoteIndex < 0)
-      {
-        // We found the prefix only, so jump to the end
-        nOperatorEndIndex = nPrefixStartIndex;
-        nField2StartIndex = nPrefixStartIndex + sPrefix.length();
-        
-        // Extract the field
-        int nLastSuffixIndex = nField2StartIndex;
-        if (sSuffix.length() > 0)
-        {
-          // There's a suffix, so look for that
-          nLastSuffixIndex = line.indexOf(sSuffix, nField2StartIndex);
-          if (nLastSuffixIndex < 0)
-          {
-            // The suffix was not found
-            return false;
-          }
-        }
-        else
-        {
-          // No suffix, so continue until we hit the end of the line or a non-digit
-          while ((nLastSuffixIndex < nLineLen) &&
-                 (Character.isDigit(line.charAt(nLastSuffixIndex))))
-          {
-            ++nLastSuffixIndex;
-          }
-        }
-        
-        // Get the field number
-        final String sField2Num = line.substring(nField2StartIndex, nLastSuffixIndex);
-        final int nField2Num = getFieldNumber(sField2Num);
-        if ((nField2Num < 1) || (nField2Num > strInput.size()))
-        {
-          return false;
-        }
-        
-        // Save the field referenced by the field number
-        sField2 = strInput.get(nField2Num - 1);
-      }
-      else if (nPrefixStartIndex < 0)
+      final StringBuilder sb = (StringBuilder) out;
+      final int nStart = sb.length();
+      execute(compiledPattern, strInput, sb);
+      if (isEmptyLine(sb, nStart))
       {
-        // Save the index of the quote character
-        nOperatorEndIndex = nQuoteIndex;
-
-        // We found the quote only, so jump past the opening quote
-        nField2StartIndex = nQuoteIndex + 1;
-        
-        // Find the closing quote
-        final int nCloseQuoteIndex = line.indexOf('"', nField2StartIndex);
-        if (nCloseQuoteIndex < 0)
-        {
-          return false;
-        }
-        
-        // Save the string between quotes
-        sField2 = line.substring(nField2StartIndex, nCloseQuoteIndex);
+        sb.setLength(nStart);
       }
-      else
-      {
-        // We found both, so save the one found first
-        if (nPrefixStartIndex < nQuoteIndex)
-        {
-          // Save the index of the prefix start
-          nOperatorEndIndex = nPrefixStartIndex;
-          
-          // We found the prefix first
-          nField2StartIndex = nPrefixStartIndex + sPrefix.length();
-          
-          // Extract the field
-          int nLastSuffixIndex = nField2StartIndex;
-          if (sSuffix.length() > 0)
-          {
-            // There's a suffix, so look for that
-            nLastSuffixIndex = line.indexOf(sSuffix, nField2StartIndex);
-            if (nLastSuffixIndex < 0)
-            {
-              // The suffix was not found
-              return false;
-            }
-          }
-          else
-          {
-            // No suffix, so continue until we hit the end of the line or a non-digit
-            while ((nLastSuffixIndex < nLineLen) &&
-                   (Character.isDigit(line.charAt(nLastSuffixIndex))))
-            {
-              ++nLastSuffixIndex;
-            }
-          }
-          
-          // Get the field number
-          final String sField2Num = line.substring(nField2StartIndex, nLastSuffixIndex);
-          final int nField2Num = getFieldNumber(sField2Num);
-          if ((nField2Num < 1) || (nField2Num > strInput.size()))
-          {
-            return false;
-          }
-          
-          // Save the field referenced by the field number
-          sField2 = strInput.get(nField2Num - 1);
-        }
-        else
-        {
-          // Save the index of the quote character
-          nOperatorEndIndex = nQuoteIndex;
-
-          // We found the quote first
-          nField2StartIndex = nQuoteIndex + 1;
-          
-          // Find the closing quote
-          final int nCloseQuoteIndex = line.indexOf('"', nField2StartIndex);
-          if (nCloseQuoteIndex < 0)
-          {
-            return false;
-          }
-          
-          // Save the string between quotes
-          sField2 = line.substring(nField2StartIndex, nCloseQuoteIndex);
-        }
-      }
-      
-      // Save the operator
-      final String sOperator = line.substring(index, nOperatorEndIndex).trim();
       
-      // Get the comparison value
-      result = compareStrings(sField1, sOperator, sField2);
+      return;
     }
-    else if (line.startsWith("\""))
+    
+    rowBuffer.setLength(0);
+    execute(compiledPattern, strInput, rowBuffer);
+    if (!isEmptyLine(rowBuffer, 0))
     {
-      // Handle the line starting with a string in quotes
-      
-      // Point the index after the quote symbol
-      int index = 1;
-      
-      // Get the string inside the quotes
-      final int nCloserIndex = line.indexOf('"', index);
-      if (nCloserIndex < 0)
-      {
-        // Not found
-        return false;
-      }
-      
-      // Save the first field
-      final String sField1 = line.substring(index, nCloserIndex);
-      
-      // Update index to point after the closing quote
-      index = nCloserIndex + 1;
-      
-      // Now we want to get the 2nd field, after the comparison operator
-      // Find the index of the string after the operator
-      final int nQuoteIndex = line.indexOf('"', index);
-      final int nPrefixStartIndex = line.indexOf(sPrefix, index);
-      
-      // Find the lesser of the two values, whichever is positive
-      int nField2StartIndex = 0;
-      int nOperatorEndIndex = 0;
-      String sField2 = null;
-      if ((nQuoteIndex < 0) && (nPrefixStartIndex < 0))
-      {
-        // Neither was found, so return
-        return false;
-      }
-      else if (nQuoteIndex < 0)
-      {
-        // We found the prefix only, so jump to the end
-        nOperatorEndIndex = nPrefixStartIndex;
-        nField2StartIndex = nPrefixStartIndex + sPrefix.length();
-        
-        // Extract the field
-        int nLastSuffixIndex = nField2StartIndex;
-        if (sSuffix.length() > 0)
-        {
-          // There's a suffix, so look for that
-          nLastSuffixIndex = line.indexOf(sSuffix, nField2StartIndex);
-          if (nLastSuffixIndex < 0)
-          {
-            // The suffix was not found
-            return false;
-          }
-        }
-        else
-        {
-          // No suffix, so continue until we hit the end of the line or a non-digit
-          while ((nLastSuffixIndex < nLineLen) &&
-                 (Character.isDigit(line.charAt(nLastSuffixIndex))))
-          {
-            ++nLastSuffixIndex;
-          }
-        }
-        
-        // Get the field number
-        final String sField2Num = line.substring(nField2StartIndex, nLastSuffixIndex);
-        final int nField2Num = getFieldNumber(sField2Num);
-        if ((nField2Num < 1) || (nField2Num > strInput.size()))
-        {
-          return false;
-        }
-        
-        // Save the field referenced by the field number
-        sField2 = strInput.get(nField2Num - 1);
-      }
-      else if (nPrefixStartIndex < 0)
-      {
-        // Save the index of the quote character
-        nOperatorEndIndex = nQuoteIndex;
-
-        // We found the quote only, so jump past the opening quote
-        nField2StartIndex = nQuoteIndex + 1;
-        
-        // Find the closing quote
-        final int nCloseQuoteIndex = line.indexOf('"', nField2StartIndex);
-        if (nCloseQuoteIndex < 0)
-        {
-          return false;
-        }
-        
-        // Save the string between quotes
-        sField2 = line.substring(nField2StartIndex, nCloseQuoteIndex);
-      }
-      else
-      {
-        // We found both, so save the one found first
-        if (nPrefixStartIndex < nQuoteIndex)
-        {
-          // Save the index of the prefix start
-          nOperatorEndIndex = nPrefixStartIndex;
-          
-          // We found the prefix first
-          nField2StartIndex = nPrefixStartIndex + sPrefix.length();
-          
-          // Extract the field
-          int nLastSuffixIndex = nField2StartIndex;
-          if (sSuffix.length() > 0)
-          {
-            // There's a suffix, so look for that
-            nLastSuffixIndex = line.indexOf(sSuffix, nField2StartIndex);
-            if (nLastSuffixIndex < 0)
-            {
-              // The suffix was not found
-              return false;
-            }
-          }
-          else
-          {
-            // No suffix, so continue until we hit the end of the line or a non-digit
-            while ((nLastSuffixIndex < nLineLen) &&
-                   (Character.isDigit(line.charAt(nLastSuffixIndex))))
-            {
-              ++nLastSuffixIndex;
-            }
-          }
-          
-          // Get the field number
-          final String sField2Num = line.substring(nField2StartIndex, nLastSuffixIndex);
-          final int nField2Num = getFieldNumber(sField2Num);
-          if ((nField2Num < 1) || (nField2Num > strInput.size()))
-          {
-            return false;
-          }
-          
-          // Save the field referenced by the field number
-          sField2 = strInput.get(nField2Num - 1);
-        }
-        else
-        {
-          // Save the index of the quote character
-          nOperatorEndIndex = nQuoteIndex;
-
-          // We found the quote first
-          nField2StartIndex = nQuoteIndex + 1;
-          
-          // Find the closing quote
-          final int nCloseQuoteIndex = line.indexOf('"', nField2StartIndex);
-          if (nCloseQuoteIndex < 0)
-          {
-            return false;
-          }
-          
-          // Save the string between quotes
-          sField2 = line.substring(nField2StartIndex, nCloseQuoteIndex);
-        }
-      }
-      
-      // Save the operator
-      final String sOperator = line.substring(index, nOperatorEndIndex).trim();
-      
-      // Get the comparison value
-      result = compareStrings(sField1, sOperator, sField2);
+      out.append(rowBuffer);
     }
-    
-    return result;
   }
   
   
   /**
-   * Perform the specified operation, comparing the two strings.
+   * Returns whether the output of a row is only a line separator.
    * 
-   * @param field1 the first field to compare
-   * @param op the comparison operator
-   * @param field2 the second field to compare
-   * @return the result of the comparison operation
+   * @param sb the output
+   * @param nStart the index of the start of the output of the row
+   * @return whether the output of the row is an empty line
    */
-  private boolean compareStrings(final String field1,
-                                 final String op,
-                                 final String field2)
+  private boolean isEmptyLine(final StringBuilder sb, final int nStart)
   {
-    // Declare the variable that will hold the return value
-    boolean result = false;
-    
-    // Check for different values for the operation
-    if ((op.equals("=")) || (op.equals("==")))
-    {
-      result = (field1.equals(field2));
-    }
-    else if ((op.equals("!=")) || (op.equals("<>")))
-    {
-      result = (!field1.equals(field2));
-    }
-    else if (op.equals(">"))
-    {
-      result = (field1.compareTo(field2) > 0);
-    }
-    else if (op.equals("<"))
-    {
-      result = (field1.compareTo(field2) < 0);
-    }
-    else if (op.equals(">="))
-    {
-      result = (field1.compareTo(field2) >= 0);
-    }
-    else if (op.equals("<="))
-    {
-      result = (field1.compareTo(field2) <= 0);
-    }
-    
-    // Return the result
-    return result;
+    return (((sb.length() - nStart) == lineSeparator.length()) &&
+            (sb.indexOf(lineSeparator, nStart) == nStart));
   }
   
   
   /**
-   * Perform the specified operation, comparing the current row
-   * number to the specified numeric value.
+   * Run the instructions in the compiled pattern against the row,
+   * and return the output without a trailing line separator.
    * 
-   * @param op the comparison to perform
-   * @param numberString the number, as a string
-   * @return the result of comparing Row to numberString
+   * @param pattern the compiled pattern
+   * @param strInput the list of fields in the row
+   * @return the processed string
    */
-  private boolean compareRowInteger(final String op,
-                                    final String numberString)
+  private String executeToString(final CompiledPattern pattern,
+                                 final List<String> strInput)
   {
-    // Convert the value into a number.  If the string is not
-    // a valid number, this method returns zero.
-    final int value = getFieldNumber(numberString);
-    
-    // This stores the result of the comparison
-    boolean result = false;
+    // This will hold the processed contents of the input file
+    StringBuilder strOut = new StringBuilder(500);
     
-    // Check for different values for the operation
-    if ((op.equals("=")) || (op.equals("==")))
-    {
-      result = (nCurrentRow == value);
-    }
-    else if ((op.equals("!=")) || (op.equals("<>")))
-    {
-      result = (nCurrentRow != value);
-    }
-    else if (op.equals(">"))
-    {
-      result = (nCurrentRow > value);
-    }
-    else if (op.equals("<"))
+    try
     {
-      result = (nCurrentRow < value);
+      execute(pattern, strInput, strOut);
     }
-    else if (op.equals(">="))
+    catch (IOException ioe)
     {
-      result = (nCurrentRow >= value);
+      // A StringBuilder does not throw an IOException
+      throw (new RuntimeException(ioe));
     }
-    else if (op.equals("<="))
+    
+    // If the string ends with a line separator, remove it
+    final int nOutLen = strOut.length();
+    final int nSepLen = lineSeparator.length();
+    if (nOutLen >= nSepLen)
     {
-      result = (nCurrentRow <= value);
+      // See if the string ends with a line separator
+      String lastString = strOut.substring(nOutLen - nSepLen);
+      if (lastString.equals(lineSeparator))
+      {
+        // It does, so remove the trailing line separator
+        strOut.delete(nOutLen - nSepLen, nOutLen);
+      }
     }
     
-    // Return the result
-    return result;
+    // Return the generated string
+    return strOut.toString();
   }
-
-
+  
+  
   /**
-   * Parse the input data using the current row from the pattern.
+   * Run the instructions in the compiled pattern against the row.
    * 
-   * @param inputLine the current line of input (a pattern row)
-   * @param listInput the array of input fields
-   * @return the pattern applied to the fields
+   * @param pattern the compiled pattern
+   * @param strInput the list of fields in the row
+   * @param strOut where to write the output
+   * @throws IOException if strOut throws an exception
    */
-  private String parseLine(final String inputLine,
-                           final List<String> listInput)
+  private void execute(final CompiledPattern pattern,
+                       final List<String> strInput,
+                       final Appendable strOut)
+    throws IOException
   {
-    // Save the length of the input line
-    final int nSize = inputLine.length();
-    
-    // Check if the pattern string is empty
-    if (nSize == 0)
+    // Use the generated class, if there is one
+    if ((renderer != null) && (pattern == compiledPattern))
     {
-      // The string is empty, so just return it
-      return inputLine;
+      renderer.render(strInput, nCurrentRow, strOut);
+      return;
     }
     
-    // Check if the code symbol prefix is in the code
-    if (inputLine.indexOf(sPrefix) < 0)
+    // Iterate over the instructions
+    final Instruction[] program = pattern.getProgram();
+    final int nSize = program.length;
+    int index = 0;
+    while (index < nSize)
     {
-      // There's nothing to do; return the whole input string
-      return inputLine;
-    }
-    
-    // If we reached this point, there is a code symbol prefix,
-    // and possibly a function.
-    
-    // This is the variable that will hold the final output string
-    String outputLine = inputLine;
-    
-    // Now iterate backwards over the list of strings in listInput;
-    // for each (id+1), replace prefix + str + suffix with listInput[i].
-    final int nNumFields = listInput.size();
-    for (int index = nNumFields; index > 0; --index)
-    {
-      // The string builder object used to build the temp output string
-      StringBuilder sb = new StringBuilder(outputLine.length());
-      
-      // The index of the start of the previous string added to
-      // the string builder object
-      int prevIndex = 0;
-      
-      // Generate the code tag (e.g., "$1")
-      final String tag = sPrefix + Integer.toString(index) + sSuffix;
-      
-      // See if the tag exists in the string
-      int tagIndex = outputLine.indexOf(tag);
-      while (tagIndex >= 0)
+      final Instruction instruction = program[index];
+      switch (instruction.getOpcode())
       {
-        // Initialize that we have not yet found a function surrounding
-        // this occurrence of a tag
-        boolean functionFound = false;
+        case Instruction.OP_RAW:
+        {
+          // The line is empty or only whitespace, so add the original
+          // row and a line separator
+          strOut.append(instruction.getText()).append(lineSeparator);
+          break;
+        }
         
-        // Iterate over the list of functions
-        for (int i = aiFunctionRefs.length - 1; (!functionFound) && (i >= 0); --i)
+        case Instruction.OP_IF:
         {
-          // See if the tag is preceded by a function call and followed by
-          // a closing parenthesis
-          if ((Utility.precededBy(outputLine, tagIndex, asFunctions[i])) &&
-              (Utility.followedBy(outputLine, tagIndex + tag.length(), ")")))
+          // If the condition is false, jump to the next branch
+          if (!instruction.getCondition().evaluate(strInput, nCurrentRow))
           {
-            // We found a function, so stop looking for more
-            functionFound = true;
-            
-            // Now we want to append everything before the function
-            sb.append(outputLine.substring(prevIndex,
-                      tagIndex - asFunctions[i].length()));
-            
-            // Append the modified string
-            sb.append(handleFunction(aiFunctionRefs[i], listInput.get(index - 1)));
-            
-            // Advance the tag index to just past the tag and the closing parenthesis
-            tagIndex += tag.length() + 1;
+            index = instruction.getTarget();
+            continue;
           }
+          break;
         }
         
-        // Check if a function was found
-        if (!functionFound)
+        case Instruction.OP_JUMP:
         {
-          // Append everything before the tag
-          sb.append(outputLine.substring(prevIndex, tagIndex));
-          
-          // Append the string
-          sb.append(listInput.get(index - 1));
-          
-          // Advance the tag index to just past the tag end
-          tagIndex += tag.length();
+          // Jump to the end of the block
+          index = instruction.getTarget();
+          continue;
         }
         
-        // Update the start of the previous substring to append
-        prevIndex = tagIndex;
+        case Instruction.OP_SWITCH:
+        {
+          // Jump to the case that matches the row
+          final SwitchTable table = instruction.getSwitchTable();
+          index = table.getTarget(table.select(strInput));
+          continue;
+        }
         
-        // Check if we've gone past the end of the line
-        if (prevIndex >= (nSize - 1))
+        default:
         {
+          // This is a line of text, so apply it and save the output
+          renderLine(instruction.getSegments(), strInput, strOut);
+          strOut.append(lineSeparator);
           break;
         }
-        
-        // Find the index of the next occurrence of the tag
-        tagIndex = outputLine.indexOf(tag, prevIndex);
-      }
-      
-      sb.append(outputLine.substring(prevIndex));
-      outputLine = sb.toString();
-    }
-    
-    // Replace occurrences of the Row variable with the correct value
-    outputLine = outputLine.replace(sPrefix + "Row" + sSuffix,
-                                    Integer.toString(nCurrentRow));
-    
-    // Return the output string 
-    return outputLine;
-  }
-  
-  
-  /**
-   * Perform the specified operation on the input string.
-   * 
-   * @param funcType the type of operation to perform
-   * @param string the input string to operate on
-   * @return the modified string
-   */
-  private static String handleFunction(final int funcType,
-                                       final String string)
-  {
-    // Check the type of function we will perform on string
-    switch (funcType)
-    {
-      case 0:
-      {
-        // Make the string lowercase
-        return string.toLowerCase();
-      }
-      
-      case 1:
-      {
-        // Make the string uppercase
-        return string.toUpperCase();
-      }
-      
-      case 2:
-      {
-        // Make the string titlecase
-        return Utility.toTitleCase(string);
       }
       
-      default:
-      {
-        // Unknown operation type
-        throw (new RuntimeException("Function type not handled"));
-      }
+      // Move to the next instruction
+      ++index;
     }
   }
   
   
   /**
-   * Converts the field reference into an integer.
+   * Apply the row of input fields to a tokenized pattern line.
    * 
-   * @param tag the string containing a number
-   * @return tag converted into an integer
+   * @param segments the tokenized pattern line
+   * @param listInput the array of input fields
+   * @param strOut where to write the output
+   * @throws IOException if strOut throws an exception
    */
-  private int getFieldNumber(final String tag)
+  private void renderLine(final Segment[] segments,
+                          final List<String> listInput,
+                          final Appendable strOut)
+    throws IOException
   {
-    // Declare the value we're going to return
-    int value = 0;
-    
-    // Convert the string to an integer
-    try
+    // Iterate over the segments
+    for (Segment segment : segments)
     {
-      value = Integer.parseInt(tag);
+      segment.render(listInput, nCurrentRow, strOut);
     }
-    catch (NumberFormatException nfe)
-    {
-      // An exception occurred, so set the value to an illegal field number
-      value = 0;
-    }
-    
-    return value;
   }
 }
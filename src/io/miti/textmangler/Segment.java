@@ -0,0 +1,453 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * One piece of a tokenized pattern line.  A segment is either
+ * literal text, a reference to a field, a reference to the $Row
+ * variable, or a call to a function.  The arguments of a function
+ * call are segments themselves, so calls can be nested.  A
+ * function call reuses its argument array, and a nested call or
+ * $Row argument reuses its buffer, for every row, so a segment
+ * must only be used by one thread at a time.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class Segment
+{
+  /**
+   * Literal text, copied to the output as-is.
+   */
+  static final int LITERAL = 0;
+  
+  /**
+   * A field reference, such as $1.
+   */
+  static final int FIELD = 1;
+  
+  /**
+   * The $Row variable.
+   */
+  static final int ROW = 2;
+  
+  /**
+   * A function call, such as $upper($1).
+   */
+  static final int CALL = 3;
+  
+  /**
+   * The type of segment.
+   */
+  private final int type;
+  
+  /**
+   * The text of the segment, as it was written in the pattern.
+   * For field references and function calls, this is output if
+   * the row does not have a referenced field.
+   */
+  private final String text;
+  
+  /**
+   * The value of a literal segment.  This is the text without
+   * the quotes, for a quoted function argument.
+   */
+  private final String value;
+  
+  /**
+   * The zero-based index of the referenced field.  For a function
+   * call, this is the highest index referenced by the arguments,
+   * or -1 if there are no field references.
+   */
+  private final int fieldIndex;
+  
+  /**
+   * The function to call.
+   */
+  private final TextFunction function;
+  
+  /**
+   * The arguments of the function call.
+   */
+  private final Segment[] arguments;
+  
+  /**
+   * The values of the arguments of a function call, reused for
+   * every row.
+   */
+  private final CharSequence[] argumentValues;
+  
+  /**
+   * The buffer for the value of a function call or $Row when it
+   * is used as an argument, or null until it is first needed.
+   */
+  private StringBuilder valueBuffer = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param nType the type of segment
+   * @param sText the text of the segment
+   * @param sValue the value of a literal segment
+   * @param nFieldIndex the zero-based index of the referenced field
+   * @param func the function to call
+   * @param args the arguments of the function call
+   */
+  private Segment(final int nType, final String sText, final String sValue,
+                  final int nFieldIndex, final TextFunction func,
+                  final Segment[] args)
+  {
+    super();
+    type = nType;
+    text = sText;
+    value = sValue;
+    fieldIndex = nFieldIndex;
+    function = func;
+    arguments = args;
+    argumentValues = ((args == null) ? null : new CharSequence[args.length]);
+  }
+  
+  
+  /**
+   * Create a literal segment.
+   * 
+   * @param sText the literal text
+   * @return the new segment
+   */
+  static Segment literal(final String sText)
+  {
+    return new Segment(LITERAL, sText, sText, -1, null, null);
+  }
+  
+  
+  /**
+   * Create a literal segment whose value differs from the text
+   * in the pattern, such as a quoted function argument.
+   * 
+   * @param sText the text in the pattern
+   * @param sValue the value of the literal
+   * @return the new segment
+   */
+  static Segment literal(final String sText, final String sValue)
+  {
+    return new Segment(LITERAL, sText, sValue, -1, null, null);
+  }
+  
+  
+  /**
+   * Create a field reference segment.
+   * 
+   * @param sTag the original text of the reference
+   * @param nFieldIndex the zero-based index of the referenced field
+   * @return the new segment
+   */
+  static Segment field(final String sTag, final int nFieldIndex)
+  {
+    return new Segment(FIELD, sTag, null, nFieldIndex, null, null);
+  }
+  
+  
+  /**
+   * Create a $Row segment.
+   * 
+   * @param sTag the original text of the reference
+   * @return the new segment
+   */
+  static Segment row(final String sTag)
+  {
+    return new Segment(ROW, sTag, null, -1, null, null);
+  }
+  
+  
+  /**
+   * Create a function call segment.
+   * 
+   * @param sText the original text of the call
+   * @param func the function to call
+   * @param args the arguments
+   * @return the new segment
+   */
+  static Segment call(final String sText, final TextFunction func,
+                      final Segment[] args)
+  {
+    // Save the highest field index referenced by the arguments
+    int maxIndex = -1;
+    for (Segment arg : args)
+    {
+      maxIndex = Math.max(maxIndex, arg.fieldIndex);
+    }
+    
+    return new Segment(CALL, sText, null, maxIndex, func, args);
+  }
+  
+  
+  /**
+   * Returns the type of segment.
+   * 
+   * @return the type of segment
+   */
+  int getType()
+  {
+    return type;
+  }
+  
+  
+  /**
+   * Returns the text of the segment.
+   * 
+   * @return the text of the segment
+   */
+  String getText()
+  {
+    return text;
+  }
+  
+  
+  /**
+   * Returns the zero-based index of the referenced field.
+   * 
+   * @return the field index
+   */
+  int getFieldIndex()
+  {
+    return fieldIndex;
+  }
+  
+  
+  /**
+   * Returns the function called by a function call segment.
+   * 
+   * @return the function, or null if this is not a function call
+   */
+  TextFunction getFunction()
+  {
+    return function;
+  }
+  
+  
+  /**
+   * Returns the arguments of a function call segment.
+   * 
+   * @return the arguments, or null if this is not a function call
+   */
+  Segment[] getArguments()
+  {
+    return arguments;
+  }
+  
+  
+  /**
+   * Returns the value of a literal segment.
+   * 
+   * @return the value of the literal
+   */
+  String getValue()
+  {
+    return value;
+  }
+  
+  
+  /**
+   * Write the segment's output for a row.
+   * 
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @param out where to write the output
+   * @throws IOException if out throws an exception
+   */
+  void render(final List<String> fields, final long currentRow,
+              final Appendable out)
+    throws IOException
+  {
+    switch (type)
+    {
+      case FIELD:
+      {
+        // If the row doesn't have the field, output the tag as-is
+        if (fieldIndex < fields.size())
+        {
+          CSVRecord.appendField(fields, fieldIndex, out);
+        }
+        else
+        {
+          out.append(text);
+        }
+        break;
+      }
+      
+      case ROW:
+      {
+        // Append the row number
+        Utility.appendNumber(currentRow, out);
+        break;
+      }
+      
+      case CALL:
+      {
+        // If the row is missing a field, output the call as-is
+        if ((fieldIndex >= fields.size()) && (!function.acceptsMissingArguments()))
+        {
+          out.append(text);
+        }
+        else
+        {
+          function.apply(evaluateArguments(fields, currentRow), out);
+        }
+        break;
+      }
+      
+      default:
+      {
+        // Append the literal text
+        out.append(value);
+        break;
+      }
+    }
+  }
+  
+  
+  /**
+   * Return the value of the segment for a row, for use as an
+   * argument to a function.
+   * 
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @return the value, or null if the row doesn't have the field
+   * @throws IOException if a function throws an exception
+   */
+  private CharSequence evaluate(final List<String> fields,
+                                final long currentRow)
+    throws IOException
+  {
+    switch (type)
+    {
+      case FIELD:
+      {
+        // Use a view of the field, if the row is a record
+        if (fieldIndex >= fields.size())
+        {
+          return null;
+        }
+        
+        return ((fields instanceof CSVRecord)
+                ? ((CSVRecord) fields).getField(fieldIndex) : fields.get(fieldIndex));
+      }
+      
+      case ROW:
+      {
+        // Write the row number to the buffer
+        StringBuilder sb = getValueBuffer();
+        Utility.appendNumber(currentRow, sb);
+        return sb;
+      }
+      
+      case CALL:
+      {
+        // Write the result of the nested call to the buffer
+        StringBuilder sb = getValueBuffer();
+        render(fields, currentRow, sb);
+        return sb;
+      }
+      
+      default:
+        return value;
+    }
+  }
+  
+  
+  /**
+   * Return the empty buffer for the value of the segment.
+   * 
+   * @return the buffer
+   */
+  private StringBuilder getValueBuffer()
+  {
+    if (valueBuffer == null)
+    {
+      valueBuffer = new StringBuilder(40);
+    }
+    else
+    {
+      valueBuffer.setLength(0);
+    }
+    
+    return valueBuffer;
+  }
+  
+  
+  /**
+   * Return the values of the arguments of a function call.  The
+   * array is reused for every row.
+   * 
+   * @param fields the list of fields in the row
+   * @param currentRow the current row number
+   * @return the argument values
+   * @throws IOException if a function throws an exception
+   */
+  private CharSequence[] evaluateArguments(final List<String> fields,
+                                           final long currentRow)
+    throws IOException
+  {
+    final int nCount = arguments.length;
+    for (int i = 0; i < nCount; ++i)
+    {
+      argumentValues[i] = arguments[i].evaluate(fields, currentRow);
+    }
+    
+    return argumentValues;
+  }
+  
+  
+  /**
+   * Add the indexes of the fields the segment refers to, including
+   * the fields in the arguments of a function call.
+   * 
+   * @param fields the set of zero-based field indexes
+   */
+  void addReferencedFields(final BitSet fields)
+  {
+    if (type == FIELD)
+    {
+      CompiledPattern.addField(fields, fieldIndex);
+    }
+    else if (type == CALL)
+    {
+      for (Segment arg : arguments)
+      {
+        arg.addReferencedFields(fields);
+      }
+    }
+  }
+}
@@ -29,7 +29,6 @@
 package io.miti.textmangler;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -138,10 +137,14 @@ public final class StringSetTokenizer
     // The start of the current string to add to the array
     int lastStartIndex = 0;
     
+    // The lookup table for the delimiters
+    final DelimiterSet delimSet = new DelimiterSet(delimiters);
+    
     // This holds the set of delimiters found in the current zone.
     // When we hit a repeat, we empty the list and readd the current
-    // token.
-    HashSet<Integer> setDelims = new HashSet<Integer>(20);
+    // token.  Zones are short, so the set is a simple array.
+    char[] zoneDelims = new char[delimiters.length()];
+    int nZoneSize = 0;
     
     // Whether we're in a zone of delimiters
     boolean inZone = false;
@@ -155,34 +158,31 @@ public final class StringSetTokenizer
       // Get the current character
       char ch = input.charAt(i);
       
-      // Record whether this character is a delimiter
-      final int nDelimIndex = delimiters.indexOf(ch);
-      
       // See if this character is a delimiter
-      if (nDelimIndex >= 0)
+      if (delimSet.contains(ch))
       {
         // We're at a delimiter.  See if we were already in a zone.
         if (inZone)
         {
           // We were already in a zone.  See if we've hit this character before.
-          if (setDelims.contains(nDelimIndex))
+          if (indexOf(zoneDelims, nZoneSize, ch) >= 0)
           {
             // This character is a repeat in this zone, so we add a new line
             output.add("");
             
-            // Clear the hash, so that after the next line, this character
+            // Clear the set, so that after the next line, this character
             // will be the only one in the set
-            setDelims.clear();
+            nZoneSize = 0;
           }
           
           // Add this character to the delimiter set
-          setDelims.add(nDelimIndex);
+          zoneDelims[nZoneSize++] = ch;
         }
         else
         {
           // We're at the start of a zone
-          setDelims.clear();
-          setDelims.add(nDelimIndex);
+          zoneDelims[0] = ch;
+          nZoneSize = 1;
           inZone = true;
           
           // Add the string before this delimiter to our output array
@@ -200,7 +200,7 @@ public final class StringSetTokenizer
         {
           // We were in a zone.  We're not any longer.
           inZone = false;
-          setDelims.clear();
+          nZoneSize = 0;
           
           // When we hit a delimiter, add the string starting here
           lastStartIndex = i;
@@ -211,4 +211,27 @@ public final class StringSetTokenizer
     // Add the final string to the output
     output.add(input.substring(lastStartIndex));
   }
+  
+  
+  /**
+   * Return the index of a character in the first nSize elements
+   * of an array.
+   * 
+   * @param array the array to search
+   * @param nSize the number of elements in use
+   * @param ch the character to find
+   * @return the index of ch, or -1 if it is not found
+   */
+  private static int indexOf(final char[] array, final int nSize, final char ch)
+  {
+    for (int i = 0; i < nSize; ++i)
+    {
+      if (array[i] == ch)
+      {
+        return i;
+      }
+    }
+    
+    return -1;
+  }
 }
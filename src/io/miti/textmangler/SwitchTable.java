@@ -0,0 +1,181 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The lookup table for a compiled $switch statement.  Each $case
+ * line is given a case number, and every value listed on the line
+ * maps to that number in a hash table, so selecting the case for a
+ * row takes the same time however many cases there are.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+final class SwitchTable
+{
+  /**
+   * The zero-based index of the field to switch on, or -1 if the
+   * $switch statement does not reference a valid field.
+   */
+  private final int fieldIndex;
+  
+  /**
+   * Map of case value to case number.
+   */
+  private final Map<String, Integer> caseNumbers = new HashMap<String, Integer>(32);
+  
+  /**
+   * The index of the first instruction of each case, by case number.
+   */
+  private final List<Integer> targets = new ArrayList<Integer>(16);
+  
+  /**
+   * The index of the first instruction of the $default case, or
+   * of the end of the switch if there is no $default.
+   */
+  private int defaultTarget = -1;
+  
+  
+  /**
+   * Constructor taking the field to switch on.
+   * 
+   * @param nFieldIndex the zero-based index of the field, or -1
+   */
+  SwitchTable(final int nFieldIndex)
+  {
+    super();
+    fieldIndex = nFieldIndex;
+  }
+  
+  
+  /**
+   * Add a case.  If a value was already used by an earlier case,
+   * the earlier case keeps it.
+   * 
+   * @param values the values for the case
+   * @param target the index of the first instruction of the case
+   */
+  void addCase(final List<String> values, final int target)
+  {
+    final Integer caseNumber = Integer.valueOf(targets.size());
+    targets.add(Integer.valueOf(target));
+    for (String value : values)
+    {
+      if (!caseNumbers.containsKey(value))
+      {
+        caseNumbers.put(value, caseNumber);
+      }
+    }
+  }
+  
+  
+  /**
+   * Set the index of the first instruction of the default case.
+   * 
+   * @param target the instruction index
+   */
+  void setDefaultTarget(final int target)
+  {
+    defaultTarget = target;
+  }
+  
+  
+  /**
+   * Returns whether the default target has been set.
+   * 
+   * @return whether there is a default target
+   */
+  boolean hasDefaultTarget()
+  {
+    return (defaultTarget >= 0);
+  }
+  
+  
+  /**
+   * Returns the number of cases.
+   * 
+   * @return the number of cases
+   */
+  int getCaseCount()
+  {
+    return targets.size();
+  }
+  
+  
+  /**
+   * Returns the index of the first instruction of a case.
+   * 
+   * @param caseNumber the case number, or -1 for the default case
+   * @return the instruction index
+   */
+  int getTarget(final int caseNumber)
+  {
+    return ((caseNumber < 0) ? defaultTarget : targets.get(caseNumber).intValue());
+  }
+  
+  
+  /**
+   * Return the case number for a row.
+   * 
+   * @param strInput the list of fields in the row
+   * @return the case number, or -1 if no case matches (or the row
+   *         does not have the field)
+   */
+  int select(final List<String> strInput)
+  {
+    if ((fieldIndex < 0) || (fieldIndex >= strInput.size()))
+    {
+      return -1;
+    }
+    
+    final Integer caseNumber = caseNumbers.get(strInput.get(fieldIndex));
+    return ((caseNumber == null) ? -1 : caseNumber.intValue());
+  }
+  
+  
+  /**
+   * Add the index of the field the switch statement refers to.
+   * 
+   * @param fields the set of zero-based field indexes
+   */
+  void addReferencedFields(final BitSet fields)
+  {
+    if (fieldIndex >= 0)
+    {
+      CompiledPattern.addField(fields, fieldIndex);
+    }
+  }
+}
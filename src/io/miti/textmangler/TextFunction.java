@@ -0,0 +1,139 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.IOException;
+
+/**
+ * A function that can be called from a pattern, such as $upper($1).
+ * Functions are registered by name in a FunctionRegistry, and
+ * resolved when the pattern is compiled.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public abstract class TextFunction
+{
+  /**
+   * The minimum number of arguments.
+   */
+  private final int minArguments;
+  
+  /**
+   * The maximum number of arguments.
+   */
+  private final int maxArguments;
+  
+  
+  /**
+   * Constructor taking the number of arguments the function accepts.
+   * 
+   * @param minArgs the minimum number of arguments
+   * @param maxArgs the maximum number of arguments
+   */
+  protected TextFunction(final int minArgs, final int maxArgs)
+  {
+    super();
+    minArguments = minArgs;
+    maxArguments = maxArgs;
+  }
+  
+  
+  /**
+   * Returns the minimum number of arguments.
+   * 
+   * @return the minimum number of arguments
+   */
+  public final int getMinArguments()
+  {
+    return minArguments;
+  }
+  
+  
+  /**
+   * Returns the maximum number of arguments.
+   * 
+   * @return the maximum number of arguments
+   */
+  public final int getMaxArguments()
+  {
+    return maxArguments;
+  }
+  
+  
+  /**
+   * Whether the function can be called when an argument refers to
+   * a field that the row does not have.  Such arguments are passed
+   * as null.  If this returns false (the default), the function
+   * call is output as it was written instead.
+   * 
+   * @return whether the function accepts missing arguments
+   */
+  public boolean acceptsMissingArguments()
+  {
+    return false;
+  }
+  
+  
+  /**
+   * Apply the function, writing the result to out.
+   * 
+   * @param args the values of the arguments
+   * @param out where to write the result
+   * @throws IOException if out throws an exception
+   */
+  public abstract void apply(final CharSequence[] args, final Appendable out)
+    throws IOException;
+  
+  
+  /**
+   * Convert an argument to an integer.
+   * 
+   * @param value the argument
+   * @param defaultValue the value to return if the argument is not a number
+   * @return the argument as an integer
+   */
+  protected static int toInt(final CharSequence value, final int defaultValue)
+  {
+    if (value == null)
+    {
+      return defaultValue;
+    }
+    
+    try
+    {
+      return Integer.parseInt(value.toString().trim());
+    }
+    catch (NumberFormatException nfe)
+    {
+      return defaultValue;
+    }
+  }
+}
@@ -32,6 +32,7 @@ import io.miti.ui.component.Factory;
 import io.miti.ui.panel.SimpleInternalFrame;
 
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
@@ -43,26 +44,42 @@ import java.awt.event.ComponentListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
 
 /**
  * This class is the main class for the TextMangler application.
@@ -106,6 +123,44 @@ public final class TextMangler implements ComponentListener, ItemListener
    */
   private JTextArea taOutput = null;
   
+  /**
+   * The file of input, or null if the input is the text in the
+   * input text area.
+   */
+  private File inputFile = null;
+  
+  /**
+   * The view of the input file.
+   */
+  private FileView inputView = null;
+  
+  /**
+   * The view of the output file.
+   */
+  private FileView outputView = null;
+  
+  /**
+   * The Input frame.
+   */
+  private SimpleInternalFrame inputFrame = null;
+  
+  /**
+   * The Output frame.
+   */
+  private SimpleInternalFrame outputFrame = null;
+  
+  /**
+   * The panel holding the input text area and the view of the
+   * input file.
+   */
+  private JPanel inputCards = null;
+  
+  /**
+   * The panel holding the output text area and the view of the
+   * output file.
+   */
+  private JPanel outputCards = null;
+  
   /**
    * The patterns combo box.
    */
@@ -121,6 +176,27 @@ public final class TextMangler implements ComponentListener, ItemListener
    */
   private JTextField tfRowDelim = null;
   
+  /**
+   * The combo box for the rules for quoting fields.
+   */
+  private JComboBox<Dialect> cbDialect = null;
+  
+  /**
+   * The combo box for the format of the input.
+   */
+  private JComboBox<String> cbFormat = null;
+  
+  /**
+   * Text field for the option of the input format, such as the
+   * layout of fixed-width columns.
+   */
+  private JTextField tfFormatOption = null;
+  
+  /**
+   * The label for the option of the input format.
+   */
+  private JLabel lblFormatOption = null;
+  
   /**
    * Text field for code symbol prefix.
    */
@@ -156,11 +232,60 @@ public final class TextMangler implements ComponentListener, ItemListener
    */
   private JCheckBox cbTrim = null;
   
+  /**
+   * Checkbox to compile the pattern to a class.
+   */
+  private JCheckBox cbCompilePattern = null;
+  
   /**
    * The button used to parse the input and generate the output.
    */
   private JButton btnGo = null;
   
+  /**
+   * The button used to cancel generating the output.
+   */
+  private JButton btnCancel = null;
+  
+  /**
+   * The button used to open or close the input file.
+   */
+  private JButton btnOpenInput = null;
+  
+  /**
+   * The button used to write the output to a file.
+   */
+  private JButton btnSaveOutput = null;
+  
+  /**
+   * The progress of generating the output.
+   */
+  private JProgressBar pbProgress = null;
+  
+  /**
+   * The background task generating the output, or null if
+   * none has been started.
+   */
+  private MangleWorker worker = null;
+  
+  /**
+   * Checkbox to apply the pattern to a sample of the input
+   * whenever the pattern or the options change.
+   */
+  private JCheckBox cbLivePreview = null;
+  
+  /**
+   * The timer that starts the live preview once the edits pause.
+   */
+  private Timer previewTimer = null;
+  
+  /**
+   * Whether the live preview was skipped because the pattern was
+   * being applied to all of the input, so it should run once that
+   * is done.
+   */
+  private boolean bPreviewPending = false;
+  
   /**
    * The default row delimiters.
    */
@@ -171,6 +296,98 @@ public final class TextMangler implements ComponentListener, ItemListener
    */
   private static final String DEFAULT_COLUMN_DELIMITERS = ",";
   
+  /**
+   * The input formats, in the order of the format combo box.
+   */
+  private static final String[] INPUT_FORMATS =
+    {"Delimited", "Fixed width", "JSON Lines", "Regular expression"};
+  
+  /**
+   * The index of the delimited input format.
+   */
+  private static final int FORMAT_DELIMITED = 0;
+  
+  /**
+   * The index of the fixed-width input format.
+   */
+  private static final int FORMAT_FIXED_WIDTH = 1;
+  
+  /**
+   * The index of the JSON Lines input format.
+   */
+  private static final int FORMAT_JSON_LINES = 2;
+  
+  /**
+   * The index of the regular expression input format.
+   */
+  private static final int FORMAT_REGEX = 3;
+  
+  /**
+   * The maximum value of the progress bar.
+   */
+  private static final int PROGRESS_MAXIMUM = 1000;
+  
+  /**
+   * The number of rows between progress updates.
+   */
+  private static final int PROGRESS_ROWS = 4096;
+  
+  /**
+   * The number of characters of output in the first chunk shown
+   * while the output is generated.  Later chunks are larger.
+   */
+  private static final int FIRST_CHUNK_SIZE = 4096;
+  
+  /**
+   * The largest number of characters in a chunk of output.
+   */
+  private static final int CHUNK_SIZE = 65536;
+  
+  /**
+   * The largest number of chunks of output generated but not
+   * yet shown.
+   */
+  private static final int MAX_PENDING_CHUNKS = 8;
+  
+  /**
+   * The number of milliseconds after the last edit before the
+   * live preview is updated.
+   */
+  private static final int PREVIEW_DELAY = 300;
+  
+  /**
+   * The largest number of rows of input in the live preview.
+   */
+  private static final long PREVIEW_ROWS = 1000L;
+  
+  /**
+   * The largest number of characters of input in the live preview.
+   */
+  private static final int PREVIEW_CHARS = 1024 * 1024;
+  
+  /**
+   * The number of characters of output shown when the output is
+   * written to a file, or the input is read from a file.
+   */
+  private static final long OUTPUT_PREVIEW_CHARS = 65536L;
+  
+  /**
+   * The line shown after the start of the output, when the input
+   * is read from a file and the rest of the output is not shown.
+   */
+  private static final String OUTPUT_PREVIEW_NOTE =
+    "[Only the start of the output is shown.  Use Save Output To for all of it.]";
+  
+  /**
+   * The name of the card showing a text area.
+   */
+  private static final String CARD_TEXT = "text";
+  
+  /**
+   * The name of the card showing a file.
+   */
+  private static final String CARD_FILE = "file";
+  
   /**
    * The default code prefix symbol.
    */
@@ -260,6 +477,182 @@ public final class TextMangler implements ComponentListener, ItemListener
     
     // Add the main panel to the content pane
     m_appFrame.getContentPane().add(sp, BorderLayout.CENTER);
+    
+    // Update the live preview when the pattern, input or options change
+    initLivePreview();
+  }
+  
+  
+  /**
+   * Set up the timer for the live preview, and listen for changes
+   * to the pattern, the input and the options.
+   */
+  private void initLivePreview()
+  {
+    previewTimer = new Timer(PREVIEW_DELAY, new java.awt.event.ActionListener()
+    {
+      public void actionPerformed(final java.awt.event.ActionEvent evt)
+      {
+        runPreview();
+      }
+    });
+    previewTimer.setRepeats(false);
+    
+    PreviewTrigger trigger = new PreviewTrigger();
+    JTextComponent[] fields = {taPattern, taInput, tfColDelim, tfRowDelim,
+                               tfFormatOption, tfCodePrefix, tfCodeSuffix,
+                               tfRowStart, tfRowIncrement};
+    for (JTextComponent field : fields)
+    {
+      field.getDocument().addDocumentListener(trigger);
+    }
+    
+    cbTrim.addItemListener(trigger);
+    cbIgnoreFirstRow.addItemListener(trigger);
+    cbDialect.addItemListener(trigger);
+    cbFormat.addItemListener(trigger);
+  }
+  
+  
+  /**
+   * Restart the timer for the live preview, if it's on, and cancel
+   * the preview being generated, since it's out of date.
+   */
+  private void schedulePreview()
+  {
+    if (!cbLivePreview.isSelected())
+    {
+      return;
+    }
+    
+    if ((worker != null) && (worker.isPreview()))
+    {
+      worker.cancel(false);
+    }
+    
+    previewTimer.restart();
+  }
+  
+  
+  /**
+   * Stop the live preview, and cancel the preview being generated.
+   */
+  private void stopPreview()
+  {
+    previewTimer.stop();
+    if ((worker != null) && (worker.isPreview()))
+    {
+      worker.cancel(false);
+    }
+  }
+  
+  
+  /**
+   * Apply the pattern to the first rows of the input, and show the
+   * output.  Nothing is done while an option is empty or not a
+   * number.  While the pattern is being applied to all of the input,
+   * the preview waits until that is done.
+   */
+  private void runPreview()
+  {
+    // Check if the pattern is being applied to all of the input,
+    // and cancel the previous preview
+    if ((worker != null) && (!worker.isDone()))
+    {
+      if (!worker.isPreview())
+      {
+        bPreviewPending = true;
+        return;
+      }
+      
+      worker.cancel(false);
+    }
+    
+    // Check the options, without resetting them to their defaults
+    // while they're being edited
+    if ((tfCodePrefix.getText().length() < 1) ||
+        (tfColDelim.getText().length() < 1) ||
+        (tfRowDelim.getText().length() < 1) ||
+        (!isNumber(tfRowStart.getText())) ||
+        (!isNumber(tfRowIncrement.getText())))
+    {
+      return;
+    }
+    
+    // Get the start of the input, if it's not from a file
+    String inputData = null;
+    if (inputFile == null)
+    {
+      try
+      {
+        inputData = taInput.getText(0,
+            Math.min(taInput.getDocument().getLength(), PREVIEW_CHARS));
+      }
+      catch (BadLocationException ble)
+      {
+        return;
+      }
+    }
+    
+    // Build the task; an invalid format option is shown instead
+    // of the output
+    MangleWorker preview = null;
+    try
+    {
+      preview = createWorker(inputData, PREVIEW_ROWS, true, null);
+    }
+    catch (IllegalArgumentException iae)
+    {
+      showPreviewError(iae.getMessage());
+      return;
+    }
+    catch (IOException ioe)
+    {
+      showPreviewError(ioe.getMessage());
+      return;
+    }
+    
+    startWorker(preview);
+  }
+  
+  
+  /**
+   * Show why the live preview cannot be generated.
+   * 
+   * @param message the reason
+   */
+  private void showPreviewError(final String message)
+  {
+    // Only show the first line of the message
+    String msg = String.valueOf(message);
+    final int nEnd = msg.indexOf('\n');
+    if (nEnd >= 0)
+    {
+      msg = msg.substring(0, nEnd);
+    }
+    
+    pbProgress.setValue(0);
+    pbProgress.setString(msg);
+  }
+  
+  
+  /**
+   * Returns whether a string is a number.
+   * 
+   * @param str the string to check
+   * @return whether the string is a number
+   */
+  private static boolean isNumber(final String str)
+  {
+    try
+    {
+      Long.parseLong(str);
+      return true;
+    }
+    catch (NumberFormatException nfe)
+    {
+      return false;
+    }
   }
   
   
@@ -332,7 +725,7 @@ public final class TextMangler implements ComponentListener, ItemListener
     JScrollPane patternScrollPane = new JScrollPane(taPattern);
     patternPanel.add(patternScrollPane, c);
     
-    // Add the Go button (4th row)
+    // Add the Go and Cancel buttons (4th row)
     c.insets = new Insets(2, 3, 3, 3);
     c.gridx = 0;
     c.gridy = 3;
@@ -344,15 +737,102 @@ public final class TextMangler implements ComponentListener, ItemListener
     {
       public void actionPerformed(final java.awt.event.ActionEvent evt)
       {
-        parseInput();
+        parseInput(null);
       }
     });
-    patternPanel.add(btnGo, c);
     
-    // Add the About button (5th row)
-    c.insets = new Insets(29, 3, 3, 3);
+    btnCancel = new JButton("Cancel");
+    btnCancel.setMnemonic(KeyEvent.VK_C);
+    btnCancel.setToolTipText("Stop applying the pattern to the input");
+    btnCancel.setEnabled(false);
+    btnCancel.addActionListener(new java.awt.event.ActionListener()
+    {
+      public void actionPerformed(final java.awt.event.ActionEvent evt)
+      {
+        cancelParse();
+      }
+    });
+    
+    JPanel goPanel = new JPanel(new GridLayout(1, 2, 5, 0));
+    goPanel.add(btnGo);
+    goPanel.add(btnCancel);
+    patternPanel.add(goPanel, c);
+    
+    // Add the Open Input and Save Output To buttons (5th row)
+    c.insets = new Insets(4, 3, 3, 3);
     c.gridx = 0;
     c.gridy = 4;
+    
+    btnOpenInput = new JButton("Open Input...");
+    btnOpenInput.setMnemonic(KeyEvent.VK_N);
+    btnOpenInput.setToolTipText("Read the input from a file");
+    btnOpenInput.addActionListener(new java.awt.event.ActionListener()
+    {
+      public void actionPerformed(final java.awt.event.ActionEvent evt)
+      {
+        openInput();
+      }
+    });
+    
+    btnSaveOutput = new JButton("Save Output To...");
+    btnSaveOutput.setMnemonic(KeyEvent.VK_S);
+    btnSaveOutput.setToolTipText(
+        "Apply the pattern to the input, and write the output to a file");
+    btnSaveOutput.addActionListener(new java.awt.event.ActionListener()
+    {
+      public void actionPerformed(final java.awt.event.ActionEvent evt)
+      {
+        saveOutput();
+      }
+    });
+    
+    JPanel filePanel = new JPanel(new GridLayout(1, 2, 5, 0));
+    filePanel.add(btnOpenInput);
+    filePanel.add(btnSaveOutput);
+    patternPanel.add(filePanel, c);
+    
+    // Add the live preview checkbox (6th row)
+    c.insets = new Insets(4, 3, 0, 3);
+    c.gridx = 0;
+    c.gridy = 5;
+    
+    cbLivePreview = new JCheckBox("Live preview");
+    cbLivePreview.setMnemonic(KeyEvent.VK_L);
+    cbLivePreview.setToolTipText(
+        "Apply the pattern to the first rows of the input after each change");
+    cbLivePreview.setSelected(false);
+    cbLivePreview.addItemListener(new ItemListener()
+    {
+      public void itemStateChanged(final ItemEvent evt)
+      {
+        if (evt.getStateChange() == ItemEvent.SELECTED)
+        {
+          schedulePreview();
+        }
+        else
+        {
+          stopPreview();
+        }
+      }
+    });
+    patternPanel.add(cbLivePreview, c);
+    
+    // Add the progress bar (7th row)
+    c.insets = new Insets(4, 3, 3, 3);
+    c.gridx = 0;
+    c.gridy = 6;
+    c.fill = GridBagConstraints.HORIZONTAL;
+    
+    pbProgress = new JProgressBar(0, PROGRESS_MAXIMUM);
+    pbProgress.setStringPainted(true);
+    pbProgress.setString("");
+    patternPanel.add(pbProgress, c);
+    c.fill = GridBagConstraints.NONE;
+    
+    // Add the About button (8th row)
+    c.insets = new Insets(17, 3, 3, 3);
+    c.gridx = 0;
+    c.gridy = 7;
     c.gridwidth = 2;
     
     JButton btnAbout = new JButton("About");
@@ -367,10 +847,10 @@ public final class TextMangler implements ComponentListener, ItemListener
     });
     patternPanel.add(btnAbout, c);
     
-    // Add the Help button (6th row)
+    // Add the Help button (9th row)
     c.insets = new Insets(12, 3, 3, 3);
     c.gridx = 0;
-    c.gridy = 5;
+    c.gridy = 8;
     c.gridwidth = 2;
     
     JButton btnHelp = new JButton(" Help ");
@@ -385,10 +865,10 @@ public final class TextMangler implements ComponentListener, ItemListener
     });
     patternPanel.add(btnHelp, c);
     
-    // Add the Quit button (7th row)
+    // Add the Quit button (10th row)
     c.insets = new Insets(12, 3, 3, 3);
     c.gridx = 0;
-    c.gridy = 6;
+    c.gridy = 9;
     c.gridwidth = 2;
     c.anchor = GridBagConstraints.NORTH;
     c.weighty = 1.0;
@@ -511,43 +991,237 @@ public final class TextMangler implements ComponentListener, ItemListener
   
   
   /**
-   * Parse the input data and perform the conversion.
+   * Parse the input data and perform the conversion.  The pattern
+   * is applied to the rows by a background task, so the window
+   * stays responsive, and the output is shown as it's generated.
+   * If there is an output file, the output is written to it, and
+   * only the start of the output is shown.
+   * 
+   * @param outFile the file for the output, or null to show all
+   *        of the output
    */
-  private void parseInput()
+  private void parseInput(final File outFile)
   {
-    // Clear the output text
-    taOutput.setText("");
+    // Only run one task at a time; a live preview is replaced
+    if ((worker != null) && (!worker.isDone()))
+    {
+      if (!worker.isPreview())
+      {
+        return;
+      }
+      
+      worker.cancel(false);
+    }
+    
+    previewTimer.stop();
+    
+    // Build the task for the input text
+    MangleWorker task = null;
+    try
+    {
+      final String inputData = (inputFile == null) ? taInput.getText() : null;
+      task = createWorker(inputData, Long.MAX_VALUE, false, outFile);
+    }
+    catch (IllegalArgumentException iae)
+    {
+      JOptionPane.showMessageDialog(m_appFrame, iae.getMessage(),
+          "Invalid " + INPUT_FORMATS[cbFormat.getSelectedIndex()] + " Option",
+          JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    catch (IOException ioe)
+    {
+      JOptionPane.showMessageDialog(m_appFrame, ioe.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    btnGo.setEnabled(false);
+    btnSaveOutput.setEnabled(false);
+    btnCancel.setEnabled(true);
+    startWorker(task);
+  }
+  
+  
+  /**
+   * Open a file of input, or close it if one is open.  The file is
+   * shown in the Input panel, and read a row at a time when the
+   * pattern is applied, so it can be larger than fits in memory.
+   */
+  private void openInput()
+  {
+    // Check for an open file
+    if (inputFile != null)
+    {
+      closeInput();
+      return;
+    }
     
-    // Get the input text
-    final String inputData = taInput.getText();
+    // Ask the user for the file
+    JFileChooser fc = new JFileChooser();
+    if (fc.showOpenDialog(m_appFrame) != JFileChooser.APPROVE_OPTION)
+    {
+      return;
+    }
     
+    final File file = fc.getSelectedFile();
+    try
+    {
+      inputView.setFile(file);
+    }
+    catch (IOException ioe)
+    {
+      JOptionPane.showMessageDialog(m_appFrame, ioe.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    // Show the file instead of the input text
+    inputFile = file;
+    ((CardLayout) inputCards.getLayout()).show(inputCards, CARD_FILE);
+    inputFrame.setTitle("Input: " + file.getName());
+    btnOpenInput.setText("Close Input");
+    btnOpenInput.setToolTipText("Read the input from the text area again");
+    schedulePreview();
+  }
+  
+  
+  /**
+   * Close the input file, and use the input text again.
+   */
+  private void closeInput()
+  {
+    try
+    {
+      inputView.close();
+    }
+    catch (IOException ioe)
+    {
+      // Nothing to do here
+    }
+    
+    inputFile = null;
+    ((CardLayout) inputCards.getLayout()).show(inputCards, CARD_TEXT);
+    inputFrame.setTitle("Input");
+    btnOpenInput.setText("Open Input...");
+    btnOpenInput.setToolTipText("Read the input from a file");
+    schedulePreview();
+  }
+  
+  
+  /**
+   * Ask the user for a file, and apply the pattern to the input
+   * with the output written to the file.
+   */
+  private void saveOutput()
+  {
+    // Only run one task at a time
+    if ((worker != null) && (!worker.isDone()) && (!worker.isPreview()))
+    {
+      return;
+    }
+    
+    // Ask the user for the file
+    JFileChooser fc = new JFileChooser();
+    if (fc.showSaveDialog(m_appFrame) != JFileChooser.APPROVE_OPTION)
+    {
+      return;
+    }
+    
+    final File file = fc.getSelectedFile();
+    try
+    {
+      // Check if the output would overwrite the input
+      if ((inputFile != null) &&
+          (file.getCanonicalFile().equals(inputFile.getCanonicalFile())))
+      {
+        JOptionPane.showMessageDialog(m_appFrame,
+            "The output file cannot be the input file.",
+            "Error", JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
+    catch (IOException ioe)
+    {
+      JOptionPane.showMessageDialog(m_appFrame, ioe.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    // Check before replacing a file
+    if ((file.exists()) &&
+        (JOptionPane.showConfirmDialog(m_appFrame,
+            file.getName() + " already exists.  Replace it?",
+            "Save Output To", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION))
+    {
+      return;
+    }
+    
+    parseInput(file);
+  }
+  
+  
+  /**
+   * Show an output file in the Output panel, or show the output
+   * text area again.
+   * 
+   * @param file the output file, or null to show the text area
+   */
+  private void showOutputFile(final File file)
+  {
+    try
+    {
+      if (file != null)
+      {
+        outputView.setFile(file);
+        ((CardLayout) outputCards.getLayout()).show(outputCards, CARD_FILE);
+        outputFrame.setTitle("Output: " + file.getName());
+        return;
+      }
+      
+      outputView.close();
+    }
+    catch (IOException ioe)
+    {
+      // Keep showing the start of the output in the text area
+    }
+    
+    ((CardLayout) outputCards.getLayout()).show(outputCards, CARD_TEXT);
+    outputFrame.setTitle("Output");
+  }
+  
+  
+  /**
+   * Build the background task that applies the pattern to the rows
+   * of the input.
+   * 
+   * @param inputData the input text, or null to read the input file
+   * @param nMaxRows the largest number of rows to read
+   * @param bPreview whether the task is for the live preview
+   * @param outFile the file for the output, or null to show all
+   *        of the output
+   * @return the task
+   * @throws IllegalArgumentException if the options for the input
+   *         format are not valid
+   * @throws IOException if the input file cannot be opened
+   */
+  private MangleWorker createWorker(final String inputData,
+                                    final long nMaxRows,
+                                    final boolean bPreview,
+                                    final File outFile)
+    throws IOException
+  {
     // Get the pattern text
     final String sPatternText = taPattern.getText();
     
     // Get the row delimiter
     final String rowDelim = Utility.fixSpecialCharacters(getRowDelimiters());
     
-    // Get the column delimiter
-    final String colDelim = getColumnDelimiters();
-    
-    // Save the values for the row
-    int nCurrentRow = getFirstRowValue();
-    final int nRowIncrement = getRowIncrement();
-    boolean readFirstRow = false;
-    
     // Special booleans
-    final boolean skipFirstRow = getIgnoreFirstRow();
     final boolean trimFields = getFieldTrimming();
     
-    // Declare our CSV parser
-    CSVReader rowParser = new CSVReader(trimFields);
-    
-    // Set the column delimiters; any character in the string is
-    // considered a delimiter
-    rowParser.setSeparators(colDelim);
-    
-    // This will hold the output data
-    StringBuilder sb = new StringBuilder(200);
+    // Declare our row parser
+    RowParser rowParser = createRowParser(trimFields);
     
     // Build the list of strings from the pattern
     List<String> patternList = new ArrayList<String>(20);
@@ -558,76 +1232,117 @@ public final class TextMangler implements ComponentListener, ItemListener
       patternList.add(sst.nextToken());
     }
     
-    // Iterate over the input rows
-    StringTokenizer rowTokenizer = new StringTokenizer(inputData, rowDelim);
-    while (rowTokenizer.hasMoreTokens())
+    // Compile the pattern once, and apply it to every row
+    CompiledPattern program = new CompiledPattern(patternList,
+                                  getCodePrefix(), getCodeSuffix());
+    Scripter scripter = new Scripter(program, lineSeparator,
+                                     getCompilePattern());
+    
+    // Only read the fields the pattern refers to
+    rowParser.setReferencedFields(program.getReferencedFields());
+    
+    // Read the input rows in a single pass on a background thread.
+    // The output of an input file is too large for the output panel,
+    // so only the start of it is shown.
+    if (inputData == null)
     {
-      // Get the next row
-      String row = rowTokenizer.nextToken();
-      
-      // Check if we're on the first row and want to skip it
-      if ((!readFirstRow) && (skipFirstRow))
-      {
-        // Mark that we read the first row
-        readFirstRow = true;
-        
-        // Skip to the next row
-        continue;
-      }
-      
-      // Parse the current row
-      List<String> rowData = rowParser.parseLine(row);
-      
-      // Apply the pattern to the input row
-      final String out = generateOutput(rowData, patternList, nCurrentRow);
-      
-      // If there was text to add, add it and a line separator
-      if ((out != null) && (out.length() > 0))
-      {
-        sb.append(out);
-        sb.append(lineSeparator);
-      }
-      
-      // Increment the row counter
-      nCurrentRow += nRowIncrement;
+      RecordSource rows = Utf8RecordReader.open(inputFile, rowParser, rowDelim);
+      return new MangleWorker(rows, inputFile.length(), "bytes", nMaxRows,
+                              bPreview, outFile, OUTPUT_PREVIEW_CHARS,
+                              scripter, getIgnoreFirstRow(),
+                              getFirstRowValue(), getRowIncrement());
     }
     
-    // Set the output text
-    taOutput.setText(sb.toString());
-    
-    // Set taOutput to show the first line
-    if (sb.length() > 0)
+    CSVRecordReader rows = new CSVRecordReader(inputData, rowParser, rowDelim);
+    final long nMaxShown = ((outFile == null) ? Long.MAX_VALUE : OUTPUT_PREVIEW_CHARS);
+    return new MangleWorker(rows, inputData.length(), "characters", nMaxRows,
+                            bPreview, outFile, nMaxShown, scripter,
+                            getIgnoreFirstRow(), getFirstRowValue(),
+                            getRowIncrement());
+  }
+  
+  
+  /**
+   * Clear the output and start a background task.
+   * 
+   * @param task the task to start
+   */
+  private void startWorker(final MangleWorker task)
+  {
+    showOutputFile(null);
+    taOutput.setText("");
+    pbProgress.setValue(0);
+    pbProgress.setString("");
+    worker = task;
+    worker.execute();
+  }
+  
+  
+  /**
+   * Cancel the background task, if it's running.
+   */
+  private void cancelParse()
+  {
+    if (worker != null)
     {
-      taOutput.setCaretPosition(0);
+      worker.cancel(false);
     }
   }
   
   
   /**
-   * Convert the row of input into a string, based on the pattern.
+   * Show the progress of the background task.
    * 
-   * @param rowData the array of field elements
-   * @param sPattern the input pattern
-   * @param nCurrentRow the current row number
-   * @return the string to add to the output panel
-   */
-  private String generateOutput(final List<String> rowData,
-                                final List<String> sPattern,
-                                final int nCurrentRow)
+   * @param nRows the number of rows processed
+   * @param nPosition the amount of the input processed
+   * @param nLength the length of the input
+   * @param sUnits the units of the length, such as characters
+   */
+  private void showProgress(final long nRows, final long nPosition,
+                            final long nLength, final String sUnits)
   {
-    // Get the code symbol prefix and suffix
-    final String symbolPrefix = getCodePrefix();
-    final String symbolSuffix = getCodeSuffix();
-    
-    // Instantiate a Scripter object to handle parsing
-    Scripter scripter = new Scripter(symbolPrefix, symbolSuffix,
-                                     lineSeparator, nCurrentRow);
+    final int nValue = (nLength < 1) ? PROGRESS_MAXIMUM :
+                       (int) ((nPosition * PROGRESS_MAXIMUM) / nLength);
+    pbProgress.setValue(nValue);
+    pbProgress.setString(String.format("%,d rows, %,d %s",
+                                       nRows, nPosition, sUnits));
+  }
+  
+  
+  /**
+   * Create the parser for the fields of each row, for the selected
+   * input format.
+   * 
+   * @param trimFields whether to trim each field
+   * @return the row parser
+   * @throws IllegalArgumentException if the options for the input
+   *         format are not valid
+   */
+  private RowParser createRowParser(final boolean trimFields)
+  {
+    // Check for the formats that are not delimited
+    final int nFormat = cbFormat.getSelectedIndex();
+    if (nFormat == FORMAT_FIXED_WIDTH)
+    {
+      return FixedWidthParser.parseLayout(tfFormatOption.getText(), trimFields);
+    }
+    else if (nFormat == FORMAT_JSON_LINES)
+    {
+      return JsonLinesParser.parseKeys(tfFormatOption.getText(), trimFields);
+    }
+    else if (nFormat == FORMAT_REGEX)
+    {
+      return new RegexParser(tfFormatOption.getText(), trimFields);
+    }
     
-    // Apply the pattern to the row of fields
-    String lines = scripter.processCode(rowData, sPattern);
+    // Declare our CSV parser
+    CSVReader csvParser = new CSVReader(trimFields);
     
-    // Return the string
-    return lines;
+    // Set the column delimiters; any character in the string is
+    // considered a delimiter
+    csvParser.setSeparators(Utility.fixSpecialCharacters(getColumnDelimiters()));
+    csvParser.setDialect((Dialect) cbDialect.getSelectedItem());
+    return csvParser;
   }
   
   
@@ -734,8 +1449,12 @@ public final class TextMangler implements ComponentListener, ItemListener
      * Options:
      *   Trim each field?
      *   Ignore first row?
+     *   Compile the pattern?
      *   Column Delimiter
      *   Row Delimiter
+     *   Quoting
+     *   Input Format
+     *   Layout, Keys or Regex
      *   Code Symbol Prefix
      *   Code Symbol Suffix
      *   $Row Initial Value
@@ -761,6 +1480,18 @@ public final class TextMangler implements ComponentListener, ItemListener
     cbIgnoreFirstRow.setSelected(false);
     panel.add(cbIgnoreFirstRow, c);
     
+    c.gridx = 0;
+    c.gridy = 2;
+    c.gridwidth = 1;
+    
+    // Add a checkbox to let a user compile the pattern to a class
+    cbCompilePattern = new JCheckBox("Compile the pattern?");
+    cbCompilePattern.setMnemonic(KeyEvent.VK_M);
+    cbCompilePattern.setToolTipText(
+        "Whether to generate a class for the pattern, which can be faster for large inputs");
+    cbCompilePattern.setSelected(false);
+    panel.add(cbCompilePattern, c);
+    
     // Add the Delimiters group box
     {
       JPanel delimPanel = new JPanel(new GridLayout(0, 2, 5, 5));
@@ -777,19 +1508,73 @@ public final class TextMangler implements ComponentListener, ItemListener
       tfColDelim.setToolTipText("List of column delimiter characters");
       tfRowDelim.setToolTipText("List of row delimiter characters");
       
+      // Initialize the list of quoting rules.  TSV uses tabs.
+      cbDialect = new JComboBox<Dialect>(Dialect.values());
+      cbDialect.setToolTipText("The rules for quoting and escaping fields");
+      cbDialect.addItemListener(new ItemListener()
+      {
+        public void itemStateChanged(final ItemEvent evt)
+        {
+          if ((evt.getStateChange() == ItemEvent.SELECTED) &&
+              (evt.getItem() == Dialect.TSV))
+          {
+            tfColDelim.setText("\\t");
+          }
+        }
+      });
+      
       delimPanel.add(new JLabel("  Column: "));
       delimPanel.add(tfColDelim);
       delimPanel.add(new JLabel("  Row: "));
       delimPanel.add(tfRowDelim);
+      delimPanel.add(new JLabel("  Quoting: "));
+      delimPanel.add(cbDialect);
       
       c.insets = new Insets(11, 25, 11, 3);
       c.gridx = 0;
-      c.gridy = 2;
+      c.gridy = 3;
       c.gridwidth = 1;
       
       panel.add(delimPanel, c);
     }
     
+    // Add the Input Format group box
+    {
+      JPanel formatPanel = new JPanel(new GridLayout(0, 2, 5, 5));
+      TitledBorder titledFormatBorder =
+        BorderFactory.createTitledBorder(
+             BorderFactory.createLineBorder(java.awt.Color.black, 1),
+             "Input Format");
+      formatPanel.setBorder(titledFormatBorder);
+      
+      // The option depends on the format
+      cbFormat = new JComboBox<String>(INPUT_FORMATS);
+      tfFormatOption = new JTextField("", 4);
+      lblFormatOption = new JLabel();
+      
+      cbFormat.setToolTipText("How the fields of each row are found");
+      cbFormat.addItemListener(new ItemListener()
+      {
+        public void itemStateChanged(final ItemEvent evt)
+        {
+          updateFormatOption();
+        }
+      });
+      updateFormatOption();
+      
+      formatPanel.add(new JLabel("  Format: "));
+      formatPanel.add(cbFormat);
+      formatPanel.add(lblFormatOption);
+      formatPanel.add(tfFormatOption);
+      
+      c.insets = new Insets(11, 25, 11, 3);
+      c.gridx = 0;
+      c.gridy = 4;
+      c.gridwidth = 1;
+      
+      panel.add(formatPanel, c);
+    }
+    
     // Add the Code Symbol group box
     {
       JPanel codePanel = new JPanel(new GridLayout(0, 2));
@@ -812,7 +1597,7 @@ public final class TextMangler implements ComponentListener, ItemListener
       
       c.insets = new Insets(11, 25, 11, 3);
       c.gridx = 0;
-      c.gridy = 3;
+      c.gridy = 5;
       c.gridwidth = 1;
       
       panel.add(codePanel, c);
@@ -840,7 +1625,7 @@ public final class TextMangler implements ComponentListener, ItemListener
       
       c.insets = new Insets(11, 25, 11, 3);
       c.gridx = 0;
-      c.gridy = 4;
+      c.gridy = 6;
       c.gridwidth = 1;
       c.anchor = GridBagConstraints.NORTH;
       c.weighty = 1.0;
@@ -854,6 +1639,41 @@ public final class TextMangler implements ComponentListener, ItemListener
   }
   
   
+  /**
+   * The input format changed, so update the label and tooltip
+   * of its option.
+   */
+  private void updateFormatOption()
+  {
+    final int nFormat = cbFormat.getSelectedIndex();
+    if (nFormat == FORMAT_FIXED_WIDTH)
+    {
+      lblFormatOption.setText("  Layout: ");
+      tfFormatOption.setToolTipText(
+          "Column widths or ranges, such as 10,5,* or 1-10,11-15,16-");
+    }
+    else if (nFormat == FORMAT_JSON_LINES)
+    {
+      lblFormatOption.setText("  Keys: ");
+      tfFormatOption.setToolTipText(
+          "Keys or dotted paths for $1, $2, etc., such as id,name,address.city");
+    }
+    else if (nFormat == FORMAT_REGEX)
+    {
+      lblFormatOption.setText("  Regex: ");
+      tfFormatOption.setToolTipText(
+          "A regular expression with a group for $1, $2, etc., such as (\\S+) (\\d+)");
+    }
+    else
+    {
+      lblFormatOption.setText("  Option: ");
+      tfFormatOption.setToolTipText("Not used for delimited input");
+    }
+    
+    tfFormatOption.setEnabled(nFormat != FORMAT_DELIMITED);
+  }
+  
+  
   /**
    * Initialize the Input panel.
    * 
@@ -868,14 +1688,19 @@ public final class TextMangler implements ComponentListener, ItemListener
     taInput = new JTextArea(50, 10);
     initInputArea();
     
+    // Show either the text area or the input file
     JScrollPane scrollPane = new JScrollPane(taInput);
-    results.add(scrollPane);
+    inputView = new FileView(taInput.getFont());
+    inputCards = new JPanel(new CardLayout());
+    inputCards.add(scrollPane, CARD_TEXT);
+    inputCards.add(inputView, CARD_FILE);
+    results.add(inputCards);
     
-    SimpleInternalFrame sif = new SimpleInternalFrame("Input");
-    sif.setPreferredSize(new Dimension(300, 500));
-    sif.add(results);
+    inputFrame = new SimpleInternalFrame("Input");
+    inputFrame.setPreferredSize(new Dimension(300, 500));
+    inputFrame.add(results);
     
-    return sif;
+    return inputFrame;
   }
   
   
@@ -911,14 +1736,19 @@ public final class TextMangler implements ComponentListener, ItemListener
     
     taOutput = new JTextArea(50, 10);
     
+    // Show either the text area or the output file
     JScrollPane scrollPane = new JScrollPane(taOutput);
-    results.add(scrollPane);
+    outputView = new FileView(taOutput.getFont());
+    outputCards = new JPanel(new CardLayout());
+    outputCards.add(scrollPane, CARD_TEXT);
+    outputCards.add(outputView, CARD_FILE);
+    results.add(outputCards);
     
-    SimpleInternalFrame sif = new SimpleInternalFrame("Output");
-    sif.setPreferredSize(new Dimension(300, 500));
-    sif.add(results);
+    outputFrame = new SimpleInternalFrame("Output");
+    outputFrame.setPreferredSize(new Dimension(300, 500));
+    outputFrame.add(results);
     
-    return sif;
+    return outputFrame;
   }
   
   
@@ -944,26 +1774,37 @@ public final class TextMangler implements ComponentListener, ItemListener
   }
   
   
+  /**
+   * Returns whether the user wants to compile the pattern to a class.
+   * 
+   * @return whether the user wants to compile the pattern
+   */
+  private boolean getCompilePattern()
+  {
+    return cbCompilePattern.isSelected();
+  }
+  
+  
   /**
    * Returns the initial value for $Row.
    * 
    * @return the initial value for $Row
    */
-  private int getFirstRowValue()
+  private long getFirstRowValue()
   {
     // The value we return
-    int nValue = 0;
+    long nValue = 0L;
     
     try
     {
-      // Convert into an integer
-      nValue = Integer.parseInt(tfRowStart.getText());
+      // Convert into a long
+      nValue = Long.parseLong(tfRowStart.getText());
     }
     catch (NumberFormatException nfe)
     {
       // An exception occurred, so set the text field
       tfRowStart.setText("1");
-      nValue = 1;
+      nValue = 1L;
     }
     
     // Return the converted string's value
@@ -976,21 +1817,21 @@ public final class TextMangler implements ComponentListener, ItemListener
    * 
    * @return the increment value for $Row
    */
-  private int getRowIncrement()
+  private long getRowIncrement()
   {
     // The value we return
-    int nValue = 0;
+    long nValue = 0L;
     
     try
     {
-      // Convert into an integer
-      nValue = Integer.parseInt(tfRowIncrement.getText());
+      // Convert into a long
+      nValue = Long.parseLong(tfRowIncrement.getText());
     }
     catch (NumberFormatException nfe)
     {
       // An exception occurred, so set the text field
       tfRowIncrement.setText("1");
-      nValue = 1;
+      nValue = 1L;
     }
     
     // Return the converted string's value
@@ -1153,4 +1994,566 @@ public final class TextMangler implements ComponentListener, ItemListener
       }
     });
   }
+  
+  
+  /**
+   * The background task that applies the pattern to every row of
+   * the input.  The output is published in chunks, which are added
+   * to the output panel as they arrive, along with the number of
+   * rows and characters processed.  Only a few chunks can wait to
+   * be shown at a time, so the memory used stays bounded.  If there
+   * is an output file, the output is written to it instead, and only
+   * the start of the output is shown.
+   */
+  private final class MangleWorker extends SwingWorker<Void, OutputChunk>
+  {
+    /**
+     * The source of the rows.
+     */
+    private final RecordSource rows;
+    
+    /**
+     * The length of the input.
+     */
+    private final long nLength;
+    
+    /**
+     * The units of the length of the input.
+     */
+    private final String sUnits;
+    
+    /**
+     * The largest number of rows to read.
+     */
+    private final long nMaxRows;
+    
+    /**
+     * Whether this task is for the live preview.
+     */
+    private final boolean preview;
+    
+    /**
+     * The file for the output, or null to show all of the output.
+     */
+    private final File outputFile;
+    
+    /**
+     * The file the output is written to until the task succeeds, when
+     * it replaces the output file, or null if it has not been created.
+     */
+    private volatile File tempFile = null;
+    
+    /**
+     * The number of characters of output still to show in the
+     * output panel.
+     */
+    private long nPreviewLeft;
+    
+    /**
+     * Whether some of the output was not shown.
+     */
+    private boolean bOutputCut = false;
+    
+    /**
+     * The compiled pattern to apply to each row.
+     */
+    private final Scripter scripter;
+    
+    /**
+     * Whether to skip the first row.
+     */
+    private final boolean skipFirstRow;
+    
+    /**
+     * The value of $Row for the first row.
+     */
+    private final long nFirstRow;
+    
+    /**
+     * The amount to increment $Row by for each row.
+     */
+    private final long nRowIncrement;
+    
+    /**
+     * The permits for chunks of output that have not been shown.
+     */
+    private final Semaphore pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+    
+    /**
+     * The number of rows processed.
+     */
+    private volatile long nRowsDone = 0L;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param source the source of the rows
+     * @param length the length of the input
+     * @param units the units of the length, such as characters
+     * @param maxRows the largest number of rows to read
+     * @param bPreview whether the task is for the live preview
+     * @param outFile the file for the output, or null to show all
+     *        of the output
+     * @param maxShown the largest number of characters of output to
+     *        show in the output panel
+     * @param script the compiled pattern to apply to each row
+     * @param skipFirst whether to skip the first row
+     * @param firstRow the value of $Row for the first row
+     * @param rowIncrement the amount to increment $Row by for each row
+     */
+    public MangleWorker(final RecordSource source, final long length,
+                        final String units, final long maxRows,
+                        final boolean bPreview, final File outFile,
+                        final long maxShown,
+                        final Scripter script, final boolean skipFirst,
+                        final long firstRow, final long rowIncrement)
+    {
+      super();
+      rows = source;
+      nLength = length;
+      sUnits = units;
+      nMaxRows = maxRows;
+      preview = bPreview;
+      outputFile = outFile;
+      nPreviewLeft = maxShown;
+      scripter = script;
+      skipFirstRow = skipFirst;
+      nFirstRow = firstRow;
+      nRowIncrement = rowIncrement;
+    }
+    
+    
+    /**
+     * Returns whether this task is for the live preview.
+     * 
+     * @return whether this task is for the live preview
+     */
+    public boolean isPreview()
+    {
+      return preview;
+    }
+    
+    
+    /**
+     * Apply the pattern to the rows.
+     * 
+     * @return null
+     * @throws IOException if the input cannot be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    protected Void doInBackground() throws IOException, InterruptedException
+    {
+      // Open a temporary file next to the output file, if there is
+      // one, so the output file is only replaced if the task succeeds
+      Writer output = null;
+      if (outputFile != null)
+      {
+        try
+        {
+          tempFile = File.createTempFile("mangler", ".tmp",
+                          outputFile.getAbsoluteFile().getParentFile());
+          output = new BufferedWriter(new OutputStreamWriter(
+                          new FileOutputStream(tempFile), "UTF-8"));
+        }
+        catch (IOException ioe)
+        {
+          discardTempFile();
+          rows.close();
+          throw ioe;
+        }
+      }
+      
+      // This will hold the next chunk of output
+      StringBuilder sb = new StringBuilder(CHUNK_SIZE + 1024);
+      int nChunkSize = FIRST_CHUNK_SIZE;
+      
+      // The record reused for every row
+      CSVRecord rowData = new CSVRecord();
+      long nCurrentRow = nFirstRow;
+      long nRows = 0L;
+      int nBatch = 0;
+      boolean readFirstRow = false;
+      boolean bComplete = false;
+      
+      try
+      {
+        while ((nRows < nMaxRows) && (rows.next(rowData)))
+        {
+          ++nRows;
+          
+          // Check if we're on the first row and want to skip it
+          if ((!readFirstRow) && (skipFirstRow))
+          {
+            // Mark that we read the first row
+            readFirstRow = true;
+          }
+          else
+          {
+            // Apply the pattern to the input row
+            scripter.processCode(rowData, nCurrentRow, sb);
+            
+            // Increment the row counter
+            nCurrentRow += nRowIncrement;
+          }
+          
+          // Publish the output when the chunk is full, and the
+          // progress after each batch of rows
+          if ((sb.length() >= nChunkSize) || (++nBatch == PROGRESS_ROWS))
+          {
+            nBatch = 0;
+            if (!publishChunk(sb, nRows, output))
+            {
+              return null;
+            }
+            
+            nChunkSize = Math.min(nChunkSize * 2, CHUNK_SIZE);
+          }
+        }
+        
+        // Publish the rest of the output
+        bComplete = publishChunk(sb, nRows, output);
+      }
+      finally
+      {
+        nRowsDone = nRows;
+        try
+        {
+          rows.close();
+        }
+        finally
+        {
+          try
+          {
+            if (output != null)
+            {
+              output.close();
+            }
+          }
+          finally
+          {
+            // Remove the partial output if the task did not finish
+            if ((!bComplete) || (isCancelled()))
+            {
+              discardTempFile();
+            }
+          }
+        }
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Publish a chunk of output and the progress, waiting if too
+     * many chunks have not been shown yet.  The buffer is emptied.
+     * If there is an output file, the chunk is written to it.  Only
+     * the start of the output is published if the output is limited,
+     * followed by a note if there is no output file to show instead.
+     * 
+     * @param sb the output to publish
+     * @param nRows the number of rows processed
+     * @param output the output file, or null
+     * @return false if the task was cancelled
+     * @throws IOException if the output file cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private boolean publishChunk(final StringBuilder sb, final long nRows,
+                                 final Writer output)
+      throws IOException, InterruptedException
+    {
+      // Write the chunk to the output file
+      String text = sb.toString();
+      sb.setLength(0);
+      if (output != null)
+      {
+        output.write(text);
+      }
+      
+      // Only show the start of the output, if it's limited
+      if (text.length() > nPreviewLeft)
+      {
+        text = text.substring(0, (int) nPreviewLeft);
+        nPreviewLeft = 0L;
+        
+        // Tell the user where to get the rest of the output
+        if ((!bOutputCut) && (output == null) && (!preview))
+        {
+          text = text + lineSeparator + OUTPUT_PREVIEW_NOTE + lineSeparator;
+        }
+        
+        bOutputCut = true;
+      }
+      else
+      {
+        nPreviewLeft -= text.length();
+      }
+      
+      while (!pendingChunks.tryAcquire(100L, TimeUnit.MILLISECONDS))
+      {
+        if (isCancelled())
+        {
+          return false;
+        }
+      }
+      
+      publish(new OutputChunk(text, nRows, rows.getPosition()));
+      return (!isCancelled());
+    }
+    
+    
+    /**
+     * Add the chunks of output to the output panel, and show the
+     * latest progress.
+     * 
+     * @param chunks the chunks published since the last call
+     */
+    protected void process(final List<OutputChunk> chunks)
+    {
+      // Let the task generate more chunks
+      pendingChunks.release(chunks.size());
+      if ((isCancelled()) || (worker != this))
+      {
+        return;
+      }
+      
+      // Add the output, keeping the view at the top if the caret
+      // is there
+      final boolean bAtTop = (taOutput.getCaretPosition() == 0);
+      for (OutputChunk chunk : chunks)
+      {
+        if (chunk.text.length() > 0)
+        {
+          taOutput.append(chunk.text);
+        }
+      }
+      
+      if (bAtTop)
+      {
+        taOutput.setCaretPosition(0);
+      }
+      
+      final OutputChunk last = chunks.get(chunks.size() - 1);
+      showProgress(last.nRows, last.nPosition, nLength, sUnits);
+    }
+    
+    
+    /**
+     * Show the final progress, or why the task stopped.
+     */
+    protected void done()
+    {
+      // Check if the task succeeded
+      Throwable error = null;
+      if (!isCancelled())
+      {
+        try
+        {
+          get();
+        }
+        catch (InterruptedException ie)
+        {
+          error = ie;
+        }
+        catch (ExecutionException ee)
+        {
+          error = ee.getCause();
+        }
+      }
+      
+      // Replace the output file with the new output only if the task
+      // succeeded; otherwise, remove the new output
+      if ((outputFile != null) && (!isCancelled()) && (error == null))
+      {
+        error = replaceOutputFile();
+      }
+      else
+      {
+        discardTempFile();
+      }
+      
+      // Check if a newer task replaced this one
+      if (worker != this)
+      {
+        return;
+      }
+      
+      if (!preview)
+      {
+        btnGo.setEnabled(true);
+        btnSaveOutput.setEnabled(true);
+        btnCancel.setEnabled(false);
+        
+        // Preview the edits made while the task was running
+        if (bPreviewPending)
+        {
+          bPreviewPending = false;
+          schedulePreview();
+        }
+      }
+      
+      // Check if the task was cancelled
+      if (isCancelled())
+      {
+        pbProgress.setString(preview ? "" : "Cancelled");
+        return;
+      }
+      
+      if (error == null)
+      {
+        showProgress(nRowsDone, nLength, nLength, sUnits);
+        if (preview)
+        {
+          pbProgress.setString(String.format("Preview of %,d rows", nRowsDone));
+        }
+        else if (outputFile != null)
+        {
+          showOutputFile(outputFile);
+        }
+      }
+      else if (error instanceof InterruptedException)
+      {
+        pbProgress.setString("Interrupted");
+      }
+      else
+      {
+        pbProgress.setString("Failed");
+        JOptionPane.showMessageDialog(m_appFrame, error.toString(),
+            "Error", JOptionPane.ERROR_MESSAGE);
+      }
+    }
+    
+    
+    /**
+     * Move the temporary file over the output file.
+     * 
+     * @return null, or the error if the output file was not replaced
+     */
+    private Throwable replaceOutputFile()
+    {
+      // Some platforms do not rename over an existing file.  If the
+      // file cannot be replaced, the new output is kept.
+      if ((!tempFile.renameTo(outputFile)) &&
+          ((!outputFile.delete()) || (!tempFile.renameTo(outputFile))))
+      {
+        return new IOException("Unable to replace " + outputFile.getPath() +
+                               "; the output is in " + tempFile.getPath());
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Delete the temporary file, if there is one.
+     */
+    private void discardTempFile()
+    {
+      final File file = tempFile;
+      if (file != null)
+      {
+        file.delete();
+      }
+    }
+  }
+  
+  
+  /**
+   * Updates the live preview when the pattern, the input or an
+   * option changes.
+   */
+  private final class PreviewTrigger implements DocumentListener, ItemListener
+  {
+    /**
+     * Default constructor.
+     */
+    public PreviewTrigger()
+    {
+      super();
+    }
+    
+    
+    /**
+     * Handle text getting inserted.
+     * 
+     * @param evt the document event
+     */
+    public void insertUpdate(final DocumentEvent evt)
+    {
+      schedulePreview();
+    }
+    
+    
+    /**
+     * Handle text getting removed.
+     * 
+     * @param evt the document event
+     */
+    public void removeUpdate(final DocumentEvent evt)
+    {
+      schedulePreview();
+    }
+    
+    
+    /**
+     * Handle an attribute changing.  Plain text has no attributes.
+     * 
+     * @param evt the document event
+     */
+    public void changedUpdate(final DocumentEvent evt)
+    {
+      // Nothing to do here
+    }
+    
+    
+    /**
+     * Handle a checkbox or combo box changing.
+     * 
+     * @param evt the item event
+     */
+    public void itemStateChanged(final ItemEvent evt)
+    {
+      schedulePreview();
+    }
+  }
+  
+  
+  /**
+   * A chunk of output, and the progress when it was generated.
+   */
+  private static final class OutputChunk
+  {
+    /**
+     * The output.
+     */
+    private final String text;
+    
+    /**
+     * The number of rows processed.
+     */
+    private final long nRows;
+    
+    /**
+     * The amount of the input processed.
+     */
+    private final long nPosition;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param output the output
+     * @param rowCount the number of rows processed
+     * @param position the amount of the input processed
+     */
+    public OutputChunk(final String output, final long rowCount,
+                       final long position)
+    {
+      super();
+      text = output;
+      nRows = rowCount;
+      nPosition = position;
+    }
+  }
 }
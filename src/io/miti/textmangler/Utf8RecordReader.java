@@ -0,0 +1,381 @@
+/**
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.textmangler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads records from a UTF-8 file without decoding the whole file.
+ * The file is mapped into memory a window at a time, and the parser
+ * finds the delimiters in the bytes, treating each byte as a char.
+ * This works because every byte of a multi-byte UTF-8 character is
+ * 0x80 or higher, so it cannot be mistaken for an ASCII delimiter.
+ * Only the fields that are kept in the record are then decoded
+ * (see RowParser.setReferencedFields()).  Rows are separated the
+ * same way as with a CSVRecordReader.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public final class Utf8RecordReader implements RecordSource
+{
+  /**
+   * The size of the window of the file that is mapped at a time.
+   */
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+  
+  /**
+   * The parser for the fields of each row.
+   */
+  private final RowParser parser;
+  
+  /**
+   * The row delimiters.
+   */
+  private final DelimiterSet rowDelims;
+  
+  /**
+   * The input file.
+   */
+  private final FileInputStream stream;
+  
+  /**
+   * The channel for the input file.
+   */
+  private final FileChannel channel;
+  
+  /**
+   * The size of the file, in bytes.
+   */
+  private final long fileSize;
+  
+  /**
+   * The size of the window to map.
+   */
+  private int windowSize;
+  
+  /**
+   * The mapped window of the file.
+   */
+  private ByteText text = null;
+  
+  /**
+   * The offset in the file of the start of the window.
+   */
+  private long windowStart = 0L;
+  
+  /**
+   * The index in the window of the next byte to parse.
+   */
+  private int position = 0;
+  
+  /**
+   * The number of bytes in the window.
+   */
+  private int limit = 0;
+  
+  /**
+   * Whether the window reaches the end of the file.
+   */
+  private boolean eof = false;
+  
+  
+  /**
+   * Constructor taking the file to read.  The quote character and
+   * the delimiters must be ASCII (see open()).
+   * 
+   * @param file the UTF-8 file to read
+   * @param rowParser the parser for the fields of each row
+   * @param rowDelimiters the row delimiter characters
+   * @throws IOException if the file cannot be opened
+   */
+  public Utf8RecordReader(final File file, final RowParser rowParser,
+                          final String rowDelimiters)
+    throws IOException
+  {
+    this(file, rowParser, rowDelimiters, WINDOW_SIZE);
+  }
+  
+  
+  /**
+   * Constructor taking the file to read and the window size.
+   * 
+   * @param file the UTF-8 file to read
+   * @param rowParser the parser for the fields of each row
+   * @param rowDelimiters the row delimiter characters
+   * @param window the number of bytes to map at a time
+   * @throws IOException if the file cannot be opened
+   */
+  Utf8RecordReader(final File file, final RowParser rowParser,
+                   final String rowDelimiters, final int window)
+    throws IOException
+  {
+    super();
+    parser = rowParser;
+    rowDelims = new DelimiterSet(rowDelimiters);
+    windowSize = window;
+    stream = new FileInputStream(file);
+    channel = stream.getChannel();
+    fileSize = channel.size();
+    
+    // Map the first window, after the byte order mark, if any
+    ByteBuffer bom = ByteBuffer.allocate(3);
+    while ((bom.hasRemaining()) && (channel.read(bom, bom.position()) > 0))
+    {
+      continue;
+    }
+    
+    final boolean bHasBom = (bom.position() == 3) && (bom.get(0) == (byte) 0xEF) &&
+                            (bom.get(1) == (byte) 0xBB) && (bom.get(2) == (byte) 0xBF);
+    map(bHasBom ? 3L : 0L);
+  }
+  
+  
+  /**
+   * Open a file of UTF-8 text.  If the parser can find the fields
+   * in undecoded UTF-8 and the row delimiters are all ASCII, the
+   * file is read with a Utf8RecordReader.  Otherwise, it is decoded
+   * as it is read, with a CSVRecordReader.
+   * 
+   * @param file the UTF-8 file to read
+   * @param rowParser the parser for the fields of each row
+   * @param rowDelimiters the row delimiter characters
+   * @return the source of the records in the file
+   * @throws IOException if the file cannot be opened
+   */
+  public static RecordSource open(final File file, final RowParser rowParser,
+                                  final String rowDelimiters)
+    throws IOException
+  {
+    // Check the delimiters
+    boolean bAscii = rowParser.hasAsciiDelimiters();
+    for (int i = 0; bAscii && (i < rowDelimiters.length()); ++i)
+    {
+      bAscii = (rowDelimiters.charAt(i) < 0x80);
+    }
+    
+    if (bAscii)
+    {
+      return new Utf8RecordReader(file, rowParser, rowDelimiters);
+    }
+    
+    // Decode the file as it's read, skipping the byte order mark
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+                              new FileInputStream(file), "UTF-8"));
+    in.mark(1);
+    if (in.read() != '\uFEFF')
+    {
+      in.reset();
+    }
+    
+    return new CSVRecordReader(in, rowParser, rowDelimiters);
+  }
+  
+  
+  /**
+   * Parse the next row into a record.
+   * 
+   * @param record the record to hold the fields
+   * @return true if a row was read, or false at the end of the file
+   * @throws IOException if the file cannot be read
+   */
+  public boolean next(final CSVRecord record) throws IOException
+  {
+    while (true)
+    {
+      // Skip any empty rows
+      while ((position < limit) && (rowDelims.contains(text.charAt(position))))
+      {
+        ++position;
+      }
+      
+      // Check for the end of the window
+      if (position == limit)
+      {
+        if (eof)
+        {
+          return false;
+        }
+        
+        map(windowStart + position);
+        continue;
+      }
+      
+      // Parse the row; if it runs past the end of the window, map
+      // the file starting at the row and parse it again
+      final int rowEnd = parser.parseRecord(text, position, limit, eof,
+                                            rowDelims, record);
+      if (rowEnd < 0)
+      {
+        if (position == 0)
+        {
+          // The window is full of one row, so make it larger
+          if (windowSize == Integer.MAX_VALUE)
+          {
+            throw new IOException("A row is too long to read");
+          }
+          
+          windowSize = (int) Math.min(windowSize * 2L, Integer.MAX_VALUE);
+        }
+        
+        map(windowStart + position);
+        continue;
+      }
+      
+      // Decode the fields that were kept
+      position = rowEnd;
+      record.decodeUtf8();
+      return true;
+    }
+  }
+  
+  
+  /**
+   * Close the file.
+   * 
+   * @throws IOException if the file cannot be closed
+   */
+  public void close() throws IOException
+  {
+    stream.close();
+  }
+  
+  
+  /**
+   * Returns the number of bytes parsed so far.
+   * 
+   * @return the number of bytes parsed
+   */
+  public long getPosition()
+  {
+    return (windowStart + position);
+  }
+  
+  
+  /**
+   * Map the window of the file that starts at the offset.
+   * 
+   * @param offset the offset in the file of the start of the window
+   * @throws IOException if the file cannot be mapped
+   */
+  private void map(final long offset) throws IOException
+  {
+    final int nSize = (int) Math.min(windowSize, fileSize - offset);
+    text = new ByteText(channel.map(FileChannel.MapMode.READ_ONLY,
+                                    offset, nSize));
+    windowStart = offset;
+    position = 0;
+    limit = nSize;
+    eof = ((offset + nSize) == fileSize);
+  }
+  
+  
+  /**
+   * A view of bytes as a CharSequence, with one char per byte.
+   */
+  private static final class ByteText implements CharSequence
+  {
+    /**
+     * The bytes.
+     */
+    private final ByteBuffer bytes;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param buffer the bytes
+     */
+    public ByteText(final ByteBuffer buffer)
+    {
+      super();
+      bytes = buffer;
+    }
+    
+    
+    /**
+     * Returns the number of bytes.
+     * 
+     * @return the number of bytes
+     */
+    public int length()
+    {
+      return bytes.limit();
+    }
+    
+    
+    /**
+     * Returns the byte at the index, as a char from 0 to 255.
+     * 
+     * @param index the index of the byte
+     * @return the byte as a char
+     */
+    public char charAt(final int index)
+    {
+      return (char) (bytes.get(index) & 0xFF);
+    }
+    
+    
+    /**
+     * Returns a range of the bytes, one char per byte.
+     * 
+     * @param start the start index, inclusive
+     * @param end the end index, exclusive
+     * @return the range of bytes
+     */
+    public CharSequence subSequence(final int start, final int end)
+    {
+      StringBuilder sb = new StringBuilder(end - start);
+      for (int i = start; i < end; ++i)
+      {
+        sb.append(charAt(i));
+      }
+      
+      return sb;
+    }
+    
+    
+    /**
+     * Returns the bytes, one char per byte.
+     * 
+     * @return the bytes as a string
+     */
+    public String toString()
+    {
+      return subSequence(0, length()).toString();
+    }
+  }
+}
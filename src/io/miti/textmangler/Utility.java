@@ -28,6 +28,8 @@
 
 package io.miti.textmangler;
 
+import java.io.IOException;
+
 /**
  * Home of various utility methods.
  * 
@@ -277,4 +279,53 @@ public final class Utility
     // Return whether we have a match
     return (postTag.equals(line.substring(postTagIndex, postTagEnd)));
   }
+  
+  
+  /**
+   * Write a number to out, without converting it to a string first.
+   * 
+   * @param value the number to write
+   * @param out where to write the number
+   * @throws IOException if out throws an exception
+   */
+  public static void appendNumber(final long value, final Appendable out)
+    throws IOException
+  {
+    // A StringBuilder can append the number directly
+    if (out instanceof StringBuilder)
+    {
+      ((StringBuilder) out).append(value);
+      return;
+    }
+    
+    // The smallest long cannot be negated
+    if (value == Long.MIN_VALUE)
+    {
+      out.append(Long.toString(value));
+      return;
+    }
+    
+    // Write the sign
+    long number = value;
+    if (number < 0L)
+    {
+      out.append('-');
+      number = -number;
+    }
+    
+    // Find the place value of the first digit
+    long divisor = 1L;
+    while ((number / divisor) >= 10L)
+    {
+      divisor *= 10L;
+    }
+    
+    // Write the digits, starting with the most significant
+    while (divisor > 0L)
+    {
+      out.append((char) ('0' + (number / divisor)));
+      number %= divisor;
+      divisor /= 10L;
+    }
+  }
 }